@@ -0,0 +1,115 @@
+/***************************************************************************************************
+Class Name: LibraryBenchmark
+***************************************************************************************************/
+
+package benchmark_components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import java.io.File;
+import java.io.IOException;
+
+import library_components.LibraryIndexer;
+import music_sheet_components.*;
+
+// Each operation covers every MIDI file of the library, so scores compare library passes.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LibraryBenchmark {
+  @Param({"library"})
+  public String library_path;
+
+  private ArrayList<File> file_list = new ArrayList<>();
+  private ArrayList<Track[]> track_lists = new ArrayList<>();
+  private ArrayList<ArrayList<Staff>> staff_lists = new ArrayList<>();
+
+  @Setup
+  public void setup() throws InvalidMidiDataException, IOException {
+    // Parsing falls back on the default time signature and tempo.
+    Properties config = new Properties();
+    Staff.loadConfig(config);
+    Chord.loadConfig(config);
+    Note.loadConfig(config);
+
+    listMidiFiles(new File(library_path), file_list);
+    Collections.sort(file_list);
+
+    for (File f : file_list) {
+      track_lists.add(MidiSystem.getSequence(f).getTracks());
+      staff_lists.add(new MidiFileReader(f).readStaves());
+    }
+  }
+
+  public static void listMidiFiles(File dir, ArrayList<File> list) {
+    File[] files = dir.listFiles();
+
+    if (files == null) {
+      return;
+    }
+
+    for (File f : files) {
+      if (f.isDirectory()) {
+        listMidiFiles(f, list);
+      } else if (LibraryIndexer.isMidiFile(f.toPath())) {
+        list.add(f);
+      }
+    }
+  }
+
+  @Benchmark
+  public void parseWithMidiSystem(Blackhole bh) throws InvalidMidiDataException, IOException {
+    for (File f : file_list) {
+      Sequence seq = MidiSystem.getSequence(f);
+
+      for (Track tr : seq.getTracks()) {
+        bh.consume(new Staff(tr));
+      }
+    }
+  }
+
+  @Benchmark
+  public void parseWithReader(Blackhole bh) throws InvalidMidiDataException, IOException {
+    for (File f : file_list) {
+      bh.consume(new MidiFileReader(f).readStaves());
+    }
+  }
+
+  @Benchmark
+  public void createSong(Blackhole bh) {
+    for (int i = 0; i < file_list.size(); i++) {
+      bh.consume(new Song(track_lists.get(i), file_list.get(i).getName()));
+    }
+  }
+
+  @Benchmark
+  public void mergeStaves(Blackhole bh) {
+    for (ArrayList<Staff> staff_list : staff_lists) {
+      bh.consume(Staff.mergeAll(staff_list));
+    }
+  }
+}
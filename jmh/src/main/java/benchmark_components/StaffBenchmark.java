@@ -0,0 +1,137 @@
+/***************************************************************************************************
+Class Name: StaffBenchmark
+***************************************************************************************************/
+
+package benchmark_components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import java.io.File;
+import java.io.IOException;
+
+import music_sheet_components.*;
+
+// Each operation covers the whole merged staff of one song.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StaffBenchmark {
+  public static final int SYNC_COUNT = 256; // tick positions visited by syncTickPosition
+
+  @Param({"library/Classical/Beethoven/Pathetique/Sonate_No._8Pathetique_1st_Movement.mid"})
+  public String song_path;
+
+  private Song song;
+  private Staff staff;
+  private Sequencer seqr;
+  private long[] sync_ticks;
+
+  @Setup
+  public void setup() throws InvalidMidiDataException, IOException {
+    Properties config = new Properties();
+    Staff.loadConfig(config);
+    Chord.loadConfig(config);
+    Note.loadConfig(config);
+
+    song = Song.read(new File(song_path));
+    staff = song.getStaffList().get(0);
+    seqr = createSequenceSink();
+
+    long[] ticks = staff.getAllTicks();
+    sync_ticks = new long[SYNC_COUNT];
+
+    for (int i = 0; i < SYNC_COUNT; i++) {
+      sync_ticks[i] = ticks[(int)((long) i*ticks.length/SYNC_COUNT)];
+    }
+  }
+
+  // A sequencer that only keeps the sequence handed to it, so Staff.play builds its
+  // sequence without a device. No output device is open, so the streaming player is not used.
+  public static Sequencer createSequenceSink() {
+    return (Sequencer) Proxy.newProxyInstance(Sequencer.class.getClassLoader(),
+        new Class<?>[] {Sequencer.class}, new InvocationHandler() {
+          private Sequence seq;
+
+          @Override
+          public Object invoke(Object proxy, Method m, Object[] args) {
+            Class<?> type = m.getReturnType();
+
+            if (m.getName().equals("setSequence") && args[0] instanceof Sequence) {
+              seq = (Sequence) args[0];
+            } else if (m.getName().equals("getSequence")) {
+              return seq;
+            } else if (type == boolean.class) {
+              return false;
+            } else if (type == long.class) {
+              return 0L;
+            } else if (type == int.class) {
+              return 0;
+            } else if (type == float.class) {
+              return 0f;
+            }
+
+            return null;
+          }
+        });
+  }
+
+  @Benchmark
+  public Sequence buildSynchronizedSequence() {
+    staff.play(seqr, 0, staff.size()-1, Chord.SYNCHRONIZED);
+    return seqr.getSequence();
+  }
+
+  @Benchmark
+  public Sequence buildOffsetSequence() {
+    staff.play(seqr, 0, staff.size()-1, Chord.OFFSET);
+    return seqr.getSequence();
+  }
+
+  @Benchmark
+  public void formatChords(Blackhole bh) {
+    for (int i = 0; i < staff.size(); i++) {
+      bh.consume(staff.getChord(i).toString());
+    }
+  }
+
+  @Benchmark
+  public void syncTickPosition(Blackhole bh) {
+    for (long tick : sync_ticks) {
+      song.syncTickPosition(tick);
+    }
+
+    bh.consume(staff.getPosition());
+  }
+
+  @Benchmark
+  public void goToMeasures(Blackhole bh) {
+    for (int m = 0; m < staff.getMeasureCount(); m++) {
+      bh.consume(staff.goTo(staff.getMeasurePosition(m)));
+    }
+  }
+}
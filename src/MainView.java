@@ -21,18 +21,23 @@ import javax.swing.JTextField;
 import javax.swing.JTree;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 import javax.swing.WindowConstants;
+import javax.swing.text.Position;
 
 import java.awt.AWTException;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
+import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
@@ -62,6 +67,9 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -69,6 +77,9 @@ import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 
+import java.nio.file.Path;
+
+import library_components.*;
 import music_sheet_components.*;
 
 public class MainView extends JPanel implements FocusListener,
@@ -99,7 +110,11 @@ public class MainView extends JPanel implements FocusListener,
   public static final int F4 = 115;
   public static final int F5 = 116;
   public static final int F6 = 117;
+  public static final int F7 = 118;
+  public static final int F8 = 119;
+  public static final int F9 = 120;
   public static final int F11 = 122;
+  public static final int F12 = 123;
   public static final int ESCAPE = 27;
 
   public static final List<Integer> MODIFIER_KEYS = Arrays.asList(new Integer[]
@@ -119,6 +134,14 @@ public class MainView extends JPanel implements FocusListener,
   public static final int EDIT_LIBRARY_PATH = 0;
   public static final int EDIT_TIME_SIGNATURE = 1;
   public static final int EDIT_PLAYBACK_OPTIONS = 2;
+  public static final int GO_TO_MEASURE = 3;
+
+  public static final String SONG_CACHE_FILE = "song_cache.bin";
+  public static final String SEARCH_INDEX_FILE = "search_index.bin";
+  public static final String MELODY_INDEX_FILE = "melody_index.bin";
+  public static final String TUNE_PREFIX = "tune:";
+  public static final int MAX_SEARCH_RESULTS = 1000;
+  public static final int FOLLOW_DELAY = 1000/60; // milliseconds between playback position updates
 
   private static final Dimension time_view_minimum_size = new Dimension(500, 8);
 
@@ -130,13 +153,29 @@ public class MainView extends JPanel implements FocusListener,
   private static JFrame frame;
   private static JPanel status_bar;
   private static JLabel    status;
+  private static JTextField search_field;
+  private static Timer follow_timer;
+  private static Timer announce_timer;
 
   private static MidiDevice midi_in;
+  private static TuneCapture tune_capture;
+  private static ScoreFollower score_follower;
   private static MidiDevice midi_out;
   private static Sequencer seqr;  
 
   private static File lib_dir;
   private static int lib_level;
+  private static ExecutorService song_loader;
+  private static LibraryIndexer lib_indexer;
+  private static SongCache song_cache;
+  private static SearchIndex search_index;
+  private static int[] search_results = new int[0];
+  private static int search_pos;
+  private static String search_query = "";
+  private static MelodyIndex melody_index;
+  private static MelodyIndex.Match[] tune_results = new MelodyIndex.Match[0];
+  private static AliasTreeNode pending_jump_node;
+  private static MelodyIndex.Match pending_jump;
   private static Song song;
   private static Song playing_song;
   private static Staff staff;
@@ -145,6 +184,11 @@ public class MainView extends JPanel implements FocusListener,
   private static Note note;
   private static int start;
   private static int stop;
+  private static long followed_word;
+  private static long practice_word;
+  private static int practice_pos;
+  private static boolean is_following;
+  private static Runnable pending_announcement;
 
   private static ArrayList<Integer> held_keys;
   private static int last_key_press;
@@ -157,6 +201,7 @@ public class MainView extends JPanel implements FocusListener,
   private static SortedStoreProperties config;
   private static String lib_path;
   private static int tree_expansion_buffer; // Number of levels to create nodes recursively.
+  private static int announce_delay; // Idle milliseconds before coalesced auditions are played.
   private static MidiDevice.Info seqr_info;
   private static MidiDevice.Info midi_in_info;
   private static MidiDevice.Info midi_out_info;
@@ -167,6 +212,7 @@ public class MainView extends JPanel implements FocusListener,
     tree_expansion_buffer
         = Integer.parseInt(config.getProperty("MainView.tree_expansion_buffer", "1"));
 
+    announce_delay = Integer.parseInt(config.getProperty("MainView.announce_delay", "150"));
     String seqr_name = config.getProperty("MainView.sequencer", "");
     String midi_in_name = config.getProperty("MainView.midi_in", "");
     String midi_out_name = config.getProperty("MainView.midi_out", "");
@@ -194,6 +240,7 @@ public class MainView extends JPanel implements FocusListener,
   public static void SaveConfig() {
     config.setProperty("MainView.lib_path", lib_path);
     config.setProperty("MainView.tree_expansion_buffer", Integer.toString(tree_expansion_buffer));
+    config.setProperty("MainView.announce_delay", Integer.toString(announce_delay));
 
     if (seqr != null) {
       config.setProperty("MainView.sequencer", seqr_info.getName());
@@ -227,6 +274,12 @@ public class MainView extends JPanel implements FocusListener,
     AliasTreeNode lib_root = new AliasTreeNode(lib_dir, "MIDI Library", lib_level);
     createLibNodes(lib_root, lib_level+tree_expansion_buffer);
     lib_tree = new JTree(lib_root);
+
+    if (tree_expansion_buffer == 0) {
+      indexLibrary(lib_root);
+    }
+
+    buildSearchIndex();
     lib_tree.getAccessibleContext().setAccessibleName("Library");
     lib_tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
     lib_tree.setFocusTraversalKeysEnabled(false);
@@ -237,7 +290,19 @@ public class MainView extends JPanel implements FocusListener,
     add(lib_tree);
 
     // Initialize positions list an add to time view horizontal scroll pane.
-    position_list = new JList<Chord>();
+    position_list = new JList<Chord>() {
+      // Typing a measure number looks it up in the staff's measure index.
+      @Override
+      public int getNextMatch(String prefix, int start_index, Position.Bias bias) {
+        if (staff == null || !prefix.matches("[0-9]{1,9}")) {
+          return super.getNextMatch(prefix, start_index, bias);
+        }
+
+        int m = Integer.parseInt(prefix);
+        return (m < staff.getMeasureCount()) ? staff.getMeasurePosition(m) : -1;
+      }
+    };
+
     position_list.getAccessibleContext().setAccessibleName("Position");
     position_list.setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
     position_list.setFocusTraversalKeysEnabled(false);
@@ -270,6 +335,28 @@ public class MainView extends JPanel implements FocusListener,
     status.addKeyListener(this);
     status_bar = new JPanel();
     status_bar.add(status);
+
+    // Add library search field to status bar.
+    search_field = new JTextField(20);
+    search_field.getAccessibleContext().setAccessibleName("Search");
+
+    search_field.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        searchLibrary(search_field.getText());
+      }
+    });
+
+    search_field.addKeyListener(new KeyAdapter() {
+      @Override
+      public void keyPressed(KeyEvent event) {
+        if (event.getKeyCode() == ESCAPE) {
+          lib_tree.requestFocusInWindow();
+        }
+      }
+    });
+
+    status_bar.add(search_field);
     add(status_bar, BorderLayout.SOUTH);
   }
 
@@ -306,12 +393,16 @@ public class MainView extends JPanel implements FocusListener,
 
   @Override
   public void treeWillExpand(TreeExpansionEvent event) {
-    AliasTreeNode node = (AliasTreeNode) lib_tree.getLastSelectedPathComponent();
+    AliasTreeNode node = (AliasTreeNode) event.getPath().getLastPathComponent();
     Object node_obj = node.getUserObject();
 
     if (!node.hasExpanded() && node_obj instanceof File) {
-      //createLibNodes(node, lib_level+tree_expansion_buffer);
-      //node.setExpanded(true);
+      if (((File) node_obj).isDirectory()) {
+        createLibNodes(node, node.level()+tree_expansion_buffer);
+        nodeChildrenInserted(node);
+      } else {
+        loadSongNode(node);
+      }
     }
   }
 
@@ -327,33 +418,21 @@ public class MainView extends JPanel implements FocusListener,
       return;
     }
 
+    selectLibNode(node);
+  }
+
+  public static void selectLibNode(AliasTreeNode node) {
     Object node_obj = node.getUserObject();
     lib_level = node.level();
 
-/*
-    if (!node.hasExpanded()) {
-      if (node_obj instanceof File && ((File) node_obj).isDirectory()) {
-        for (File f : ((File) node_obj).listFiles()) {
-          node.add(new AliasTreeNode(f, f.getName(), lib_level+1));
-        }
-
-        node.setExpanded(true);
-      } else if (node_obj instanceof File && ((File) node_obj).isFile()) {
-        Song sg = createSong((File) node_obj, lib_level);
-        node.setUserObject(sg);
-        node_obj = sg;
-        int track_level = lib_level+1;
-
-        for (int i = 1; i < sg.getStaffList().size(); i++) {
-          Staff s = sg.getStaffList().get(i);
-          AliasTreeNode a = new AliasTreeNode(s, s.toString()+"; level "+track_level, track_level);
-          node.add(a);
-        }
-      }
+    // Selecting another node cancels a jump waiting for its song to be parsed.
+    if (node != pending_jump_node) {
+      pending_jump_node = null;
+    }
 
-      node.setExpanded(true);
+    if (node_obj instanceof File && ((File) node_obj).isFile()) {
+      loadSongNode(node);
     }
-*/
 
     if (staff != null && staff.isPlaying()) {
       playing_staff = staff;
@@ -362,7 +441,7 @@ public class MainView extends JPanel implements FocusListener,
       song.syncTickPosition(staff.getChord(staff.getPosition()).getTick());
     }
 
-    if (node_obj.getClass().getName() == "MainView$Song") {
+    if (node_obj.getClass().getName() == "music_sheet_components.Song") {
       song = (Song) node_obj;
       staff = song.getStaffList().get(0);
       setStatus(staff.toString());
@@ -374,6 +453,10 @@ public class MainView extends JPanel implements FocusListener,
 
       staff = (Staff) node_obj;
       setStatus(staff.toString());
+    } else if (node.isLoading()) {
+      song = null;
+      staff = null;
+      setStatus("Loading "+((File) node_obj).getName());
     } else {
       song = null;
       staff = null;
@@ -385,6 +468,10 @@ public class MainView extends JPanel implements FocusListener,
 
   @Override
   public void valueChanged(ListSelectionEvent event) {
+    if (is_following) {
+      return;
+    }
+
     ListSelectionModel lsm = (ListSelectionModel)event.getSource();
     ArrayList<Integer> selected_indices = new ArrayList<>();
 
@@ -455,16 +542,62 @@ public class MainView extends JPanel implements FocusListener,
       } case F2: {
         configOptions(EDIT_TIME_SIGNATURE);
         return;
+      } case F3: {
+        Staff.setTempoFactor(seqr, Staff.tempo_factor-Staff.TEMPO_FACTOR_STEP);
+        setStatus("Speed "+Math.round(Staff.tempo_factor*100)+"%");
+        return;
+      } case F4: {
+        Staff.setTempoFactor(seqr, Staff.tempo_factor+Staff.TEMPO_FACTOR_STEP);
+        setStatus("Speed "+Math.round(Staff.tempo_factor*100)+"%");
+        return;
       } case F5: {
         configOptions(EDIT_LIBRARY_PATH);
+        return;
+      } case F7: {
+        if (score_follower == null) {
+          setStatus("No MIDI input device selected.");
+        } else if (score_follower.isEnabled()) {
+          score_follower.setEnabled(false);
+          setStatus("Stopped following practice");
+        } else {
+          score_follower.setStaff(staff, (staff != null) ? staff.getPosition() : 0);
+          practice_word = score_follower.getMatchWord();
+          practice_pos = (staff != null) ? staff.getPosition() : 0;
+          score_follower.setEnabled(true);
+          setStatus("Following practice");
+        }
+
+        return;
+      } case F8: {
+        search_field.requestFocusInWindow();
+        search_field.selectAll();
+        return;
+      } case F9: {
+        if (tune_capture == null) {
+          setStatus("No MIDI input device selected.");
+        } else if (tune_capture.isListening()) {
+          tune_capture.setListening(false);
+          setStatus("Stopped listening for tunes");
+        } else {
+          tune_capture.setListening(true);
+          setStatus("Listening for tunes");
+        }
+
         return;
       } case F11: {
         configMidiDevice(SELECT_DEVICES);
         return;
+      } case F12: {
+        configOptions(GO_TO_MEASURE);
+        return;
       }
     }
 
     // Implement space and CTRL key behavior for play/pause/stop.
+    if (k == SPACE || k == CTRL) {
+      pending_announcement = null;
+    }
+
     if (k == SPACE) {
       if (playing_staff != null && playing_staff.isPlaying()) {
         if (ui_component.equals("Library")) {
@@ -500,6 +633,8 @@ public class MainView extends JPanel implements FocusListener,
 
         playing_song.syncTickPosition(
             playing_staff.getChord(playing_staff.getPosition()).getTick());
+      } else if (Player.get() != null && Player.get().isRunning()) {
+        Player.get().stop();
       } else if (seqr != null && seqr.isRunning()) {
         seqr.stop();
       }
@@ -512,6 +647,8 @@ public class MainView extends JPanel implements FocusListener,
       switch(k) {
         case RIGHT:
         case F: {
+          event.consume(); // The audition selects the chord, or extends the range to it.
+
           if (staff.getPosition() < staff.size()-1) {
             loadChord(staff.moveForward());
           }
@@ -521,14 +658,16 @@ public class MainView extends JPanel implements FocusListener,
           }
 
           if (held_keys.contains(SHIFT)) {
-            chord.play(seqr, Chord.SYNCHRONIZED);
+            auditionChord(chord, Chord.SYNCHRONIZED, event.isShiftDown());
           } else {
-            chord.play(seqr, playback_mode);
+            auditionChord(chord, playback_mode, event.isShiftDown());
           }
 
           break;
         } case LEFT:
         case S: {
+          event.consume(); // The audition selects the chord, or extends the range to it.
+
           if (staff.getPosition() > 0) {
             loadChord(staff.moveBack());
           }
@@ -538,9 +677,9 @@ public class MainView extends JPanel implements FocusListener,
           }
 
           if (held_keys.contains(SHIFT)) {
-            chord.play(seqr, Chord.SYNCHRONIZED);
+            auditionChord(chord, Chord.SYNCHRONIZED, event.isShiftDown());
           } else {
-            chord.play(seqr, playback_mode);
+            auditionChord(chord, playback_mode, event.isShiftDown());
           }
 
           break;
@@ -548,8 +687,9 @@ public class MainView extends JPanel implements FocusListener,
         case E: {
           if (ui_component.equals("Note")) {
             if (chord.getIndex() > 0) {
+              event.consume(); // The audition selects the note.
               note = chord.moveUp();
-              note.play(seqr);
+              auditionNote(note, chord.getIndex());
             } else if (chord.getIndex() == 0) {
               position_list.requestFocusInWindow();
               playback_mode = Chord.OFFSET;
@@ -579,8 +719,9 @@ public class MainView extends JPanel implements FocusListener,
         case D: {
           if (ui_component.equals("Note")) {
             if (chord.getIndex() < chord.size()-1) {
+              event.consume(); // The audition selects the note.
               note = chord.moveDown();
-              note.play(seqr);
+              auditionNote(note, chord.getIndex());
             } else if (chord.getIndex() == chord.size()-1) {
               position_list.requestFocusInWindow();
               note_list.clearSelection();
@@ -738,7 +879,15 @@ public class MainView extends JPanel implements FocusListener,
               midi_in.close();
             }
 
+            if (tune_capture != null) {
+              tune_capture.close();
+              tune_capture = null;
+              score_follower = null;
+            }
+
             if (midi_out != null && midi_out.isOpen()) {
+              Player.close();
+              Audition.close();
               midi_out.close();
             }
 
@@ -779,14 +928,33 @@ public class MainView extends JPanel implements FocusListener,
       midi_out = MidiSystem.getMidiDevice(midi_out_info);
       seqr.open();
       midi_out.open();
+      Audition.open(midi_out);
+      Player.open(midi_out);
+
+      Receiver rcv = midi_out.getReceiver();
 
       if (trans == null) {
         trans = seqr.getTransmitter();
       } else {
         //seqr.getTransmitter(trans);
+
+        // Played notes still reach midi_out; the follower and capture only listen in.
+        score_follower = new ScoreFollower(rcv);
+        tune_capture = new TuneCapture(score_follower, new TuneCapture.MatchListener() {
+          @Override
+          public void tuneMatched(MelodyIndex index, MelodyIndex.Match match) {
+            SwingUtilities.invokeLater(new Runnable() {
+              public void run() {
+                showPlayedMatch(index, match);
+              }
+            });
+          }
+        });
+
+        tune_capture.setIndex(melody_index);
+        rcv = tune_capture;
       }
 
-      Receiver rcv = midi_out.getReceiver();
       trans.setReceiver(rcv);
     } catch(Exception e) {
       System.out.println(e);
@@ -870,6 +1038,36 @@ public class MainView extends JPanel implements FocusListener,
               loadStaff();
             }
           }
+        } else if (action == GO_TO_MEASURE) {
+          if (staff == null) {
+            setStatus("No staff loaded.");
+            return;
+          }
+
+          options.put("Measure", Integer.toString(staff.getMeasure(staff.getPosition())));
+          config_pane.setTitle("Go to Measure: "+staff.toString());
+          config_pane.setOptions(options);
+          int i = config_pane.showDialog();
+
+          if (i == JOptionPane.OK_OPTION) {
+            int m = Integer.parseInt(options.get("Measure"));
+
+            if (m < 0 || m >= staff.getMeasureCount()) {
+              throw new NumberFormatException(
+                  "Measures are numbered from 0 to "+(staff.getMeasureCount()-1)+".");
+            }
+
+            start = staff.getMeasurePosition(m);
+            stop = start;
+            loadChord(staff.goTo(start));
+            setStatus(chord.toString());
+
+            is_following = true;
+            position_list.setSelectedIndex(start);
+            position_list.ensureIndexIsVisible(start);
+            is_following = false;
+            position_list.requestFocusInWindow();
+          }
         } else if (action == EDIT_PLAYBACK_OPTIONS) {
           options.put("Chord Offset (milliseconds)", Integer.toString(Chord.chord_offset));
           options.put("Offset Buffer (milliseconds)", Integer.toString(Chord.offset_buffer));
@@ -928,7 +1126,29 @@ public class MainView extends JPanel implements FocusListener,
       AliasTreeNode lib_root = new AliasTreeNode(lib_dir, "MIDI Library", lib_level);
       createLibNodes(lib_root, lib_level+tree_expansion_buffer);
       DefaultTreeModel lib_model = new DefaultTreeModel(lib_root);
-      lib_tree.setModel(lib_model); 
+
+      // Drop songs still queued for the previous library.
+      song_loader.shutdownNow();
+      song_loader = createSongLoader();
+
+      if (lib_indexer != null) {
+        lib_indexer.shutdown();
+        lib_indexer = null;
+      }
+
+      lib_tree.setModel(lib_model);
+
+      if (tree_expansion_buffer == 0) {
+        indexLibrary(lib_root);
+      }
+
+      // An index of another library is dropped until the new one is built.
+      search_index = SearchIndex.load(new File(SEARCH_INDEX_FILE), lib_dir);
+      setMelodyIndex(MelodyIndex.load(new File(MELODY_INDEX_FILE), lib_dir));
+      search_query = "";
+      pending_jump_node = null;
+      buildSearchIndex();
+
       lib_tree.requestFocusInWindow();
       lib_tree.setSelectionRow(0);
 lib_tree.expandPath(new TreePath(lib_root));
@@ -938,6 +1158,8 @@ lib_tree.expandPath(new TreePath(lib_root));
 
   @SuppressWarnings("unchecked")
   public static void loadStaff() {
+    pending_announcement = null;
+
     if (staff == null) {
       chord = null;
       note = null;
@@ -951,7 +1173,6 @@ lib_tree.expandPath(new TreePath(lib_root));
     start = staff.getPosition();
     stop = start;
     position_list.setModel(staff.getModel());
-    staff.setChordTimeSignature();
     loadChord(staff.getChord(start));
   }
 
@@ -971,7 +1192,7 @@ lib_tree.expandPath(new TreePath(lib_root));
 
     if (level > end_level && tree_expansion_buffer > 0) {
       return;
-    } else if (node.getChildCount() > 0) {
+    } else if (node.hasExpanded()) {
       for (int i = 0; i < node.getChildCount(); i++) {
         AliasTreeNode n = (AliasTreeNode) node.getChildAt(i);
         createLibNodes(n, end_level);
@@ -984,13 +1205,18 @@ lib_tree.expandPath(new TreePath(lib_root));
 
     Object obj = node.getUserObject();
 
-    if (!(obj instanceof File)) {
+    if (!(obj instanceof File) || !((File) obj).isDirectory()) {
       return;
     }
 
     File file_obj = (File) obj;
+    File[] file_list = file_obj.listFiles();
+
+    if (file_list == null) {
+      return;
+    }
 
-    for (File f : file_obj.listFiles()) {
+    for (File f : file_list) {
       if (f.isDirectory()) {
         String node_name = f.getName()+"; level "+level;;
         AliasTreeNode dir_node = new AliasTreeNode(f, node_name, level);
@@ -1000,35 +1226,524 @@ lib_tree.expandPath(new TreePath(lib_root));
         node.add(createSongNode(f, level));
       }
     }
+
+    node.setExpanded(true);
   }
 
   public static AliasTreeNode createSongNode(File f, int level) {
+    // The song is parsed when the node is first expanded or selected.
+    return new AliasTreeNode(f, f.getName()+"; level "+level, level);
+  }
+
+  public static Song createSong(File f) {
     try {
-      Sequence seq = MidiSystem.getSequence(f);
-      float div_type = seq.getDivisionType();
-      int ppq = seq.getResolution();
-      Song sg = new Song(seq.getTracks(), f.getName());
-      int track_level = level+1;
-
-      if (div_type == Sequence.PPQ) {
-        sg.setResolution(ppq);
-      } else {
-        sg.setResolution(Staff.default_ppq);
+      return song_cache.read(f);
+    } catch(InvalidMidiDataException | IOException | RuntimeException e) {
+      // Returning no song ends the node's loading state, whatever failed.
+      System.out.println("Error creating nodes for tracks.");
+      System.out.println(e);
+      return null;
+    }
+  }
+
+  public static void loadSongNode(AliasTreeNode node) {
+    if (node.hasExpanded() || node.isLoading()) {
+      return;
+    }
+
+    File f = (File) node.getUserObject();
+    node.setLoading(true);
+
+    song_loader.execute(new Runnable() {
+      public void run() {
+        Song sg = createSong(f);
+
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            populateSongNode(node, sg);
+          }
+        });
       }
+    });
+  }
+
+  public static void populateSongNode(AliasTreeNode node, Song sg) {
+    DefaultTreeModel m = (DefaultTreeModel) lib_tree.getModel();
+
+    // A song loaded twice is only added once.
+    if (node.hasExpanded()) {
+      return;
+    }
 
-      AliasTreeNode s_node = new AliasTreeNode(sg, sg.toString()+"; level "+level, level);
+    node.setLoading(false);
+    node.setExpanded(true);
+
+    // Ignore songs finishing after the library has been refreshed.
+    if (node.getRoot() != m.getRoot()) {
+      return;
+    }
+
+    if (sg != null) {
+      int track_level = node.level()+1;
+      node.setUserObject(sg);
 
       for (int i = 1; i < sg.getStaffList().size(); i++) {
         Staff s = sg.getStaffList().get(i);
         AliasTreeNode a = new AliasTreeNode(s, s.toString()+"; level "+track_level, track_level);
-        s_node.add(a);
+        node.add(a);
       }
 
-      return s_node;
-    } catch(InvalidMidiDataException | IOException e) {
-      System.out.println("Error creating nodes for tracks.");
-      System.out.println(e);
-      return null;
+      nodeChildrenInserted(node);
+    }
+
+    m.nodeChanged(node);
+
+    if (node == pending_jump_node) {
+      pending_jump_node = null;
+
+      if (sg != null) {
+        jumpToMatch(node, pending_jump);
+        return;
+      }
+    }
+
+    if (lib_tree.getLastSelectedPathComponent() == node) {
+      selectLibNode(node);
+    }
+  }
+
+  public static void indexLibrary(AliasTreeNode lib_root) {
+    HashMap<Path, AliasTreeNode> song_node_map = new HashMap<>();
+    collectSongNodes(lib_root, song_node_map);
+    LibraryIndexer indexer = new LibraryIndexer(song_cache);
+    lib_indexer = indexer;
+
+    // Songs are parsed in parallel and handed to their placeholder nodes as they finish, so the
+    // tree keeps the order and hierarchy built by createLibNodes().
+    Thread t = new Thread(new Runnable() {
+      public void run() {
+        try {
+          indexer.index(lib_dir, new LibraryIndexer.SongListener() {
+            @Override
+            public void songLoaded(File f, Song sg) {
+              AliasTreeNode node = song_node_map.get(f.toPath().toAbsolutePath().normalize());
+
+              if (node == null) {
+                return;
+              }
+
+              SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                  populateSongNode(node, sg);
+                }
+              });
+            }
+          });
+
+          // Keep what the pass parsed should the application not close normally.
+          indexer.finish();
+          song_cache.save();
+        } catch(InterruptedException e) {
+          System.out.println(e);
+        } catch(IOException | RuntimeException e) {
+          System.out.println(e);
+
+          // Songs the walk never reached are left to load when their nodes are opened.
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              for (AliasTreeNode node : song_node_map.values()) {
+                if (node.isLoading() && !node.hasExpanded()) {
+                  node.setLoading(false);
+                }
+              }
+            }
+          });
+        }
+      }
+    }, "Library Indexer");
+
+    t.setDaemon(true);
+    t.start();
+  }
+
+  // Indexes the library in the background; songs unchanged since the saved index are not read.
+  // The melody index follows the same way, reading changed songs through the song cache.
+  public static void buildSearchIndex() {
+    File dir = lib_dir;
+    SearchIndex previous = search_index;
+    MelodyIndex previous_tunes = melody_index;
+
+    if (dir == null) {
+      return;
+    }
+
+    Thread t = new Thread(new Runnable() {
+      public void run() {
+        try {
+          SearchIndex index = SearchIndex.build(dir, song_cache, previous);
+          index.save(new File(SEARCH_INDEX_FILE));
+
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              if (dir == lib_dir) {
+                search_index = index;
+              }
+            }
+          });
+
+          MelodyIndex tunes = MelodyIndex.build(dir, song_cache, previous_tunes);
+          tunes.save(new File(MELODY_INDEX_FILE));
+          song_cache.save();
+
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              if (dir == lib_dir) {
+                setMelodyIndex(tunes);
+              }
+            }
+          });
+        } catch(IOException | InterruptedException | RuntimeException e) {
+          System.out.println(e);
+        }
+      }
+    }, "Search Indexer");
+
+    t.setDaemon(true);
+    t.start();
+  }
+
+  // Selects the first song matching the query; searching again for the same query moves on
+  // to the next match.
+  public static void searchLibrary(String query) {
+    if (query.startsWith(TUNE_PREFIX)) {
+      searchTune(query);
+      return;
+    } else if (search_index == null) {
+      setStatus("The library is still being indexed.");
+      return;
+    }
+
+    if (!query.equals(search_query)) {
+      search_results = search_index.search(query, MAX_SEARCH_RESULTS);
+      search_query = query;
+      search_pos = 0;
+    } else if (search_results.length > 0) {
+      search_pos = (search_pos+1) % search_results.length;
+    }
+
+    if (search_results.length == 0) {
+      setStatus("No songs found for "+query);
+      return;
+    }
+
+    int doc = search_results[search_pos];
+    AliasTreeNode node = findLibNode(search_index.getPath(doc));
+    setStatus("Result "+(search_pos+1)+" of "+search_results.length+": "+
+        search_index.getPath(doc)+", "+search_index.getMetadata(doc));
+
+    if (node != null) {
+      TreePath path = new TreePath(node.getPath());
+      lib_tree.setSelectionPath(path);
+      lib_tree.scrollPathToVisible(path);
+      lib_tree.requestFocusInWindow();
+    }
+  }
+
+  // Jumps to the best place for a tune such as "tune: e5 d#5 e5 d#5 e b d c a"; searching
+  // again moves on to the next place.
+  public static void searchTune(String query) {
+    if (melody_index == null) {
+      setStatus("The library melodies are still being indexed.");
+      return;
+    }
+
+    if (!query.equals(search_query)) {
+      int[] keys;
+
+      try {
+        keys = MelodyIndex.parseNotes(query.substring(TUNE_PREFIX.length()));
+      } catch(NumberFormatException e) {
+        setStatus("Invalid note in "+query);
+        return;
+      }
+
+      if (keys.length <= MelodyIndex.GRAM) {
+        setStatus("Enter at least "+(MelodyIndex.GRAM+1)+" notes to search for a tune.");
+        return;
+      }
+
+      tune_results = melody_index.search(keys, MAX_SEARCH_RESULTS);
+      search_query = query;
+      search_pos = 0;
+    } else if (tune_results.length > 0) {
+      search_pos = (search_pos+1) % tune_results.length;
+    }
+
+    if (tune_results.length == 0) {
+      setStatus("No songs found for "+query);
+      return;
+    }
+
+    MelodyIndex.Match match = tune_results[search_pos];
+    setStatus("Result "+(search_pos+1)+" of "+tune_results.length+": "+
+        melody_index.getPath(match.getDoc())+", "+match.getHits()+" matching intervals");
+    goToMatch(match);
+  }
+
+  // Follows the tune being played on the MIDI input to its best match in the library.
+  public static void showPlayedMatch(MelodyIndex index, MelodyIndex.Match match) {
+    if (index != melody_index || tune_capture == null || !tune_capture.isListening()) {
+      return;
+    }
+
+    setStatus("Playing "+index.getPath(match.getDoc())+", "+match.getHits()+
+        " matching intervals");
+    goToMatch(match);
+  }
+
+  public static void goToMatch(MelodyIndex.Match match) {
+    AliasTreeNode node = findLibNode(melody_index.getPath(match.getDoc()));
+
+    if (node == null) {
+      return;
+    } else if (node.getUserObject() instanceof Song) {
+      jumpToMatch(node, match);
+      return;
+    }
+
+    // The song is parsed first; populateSongNode() finishes the jump.
+    pending_jump_node = node;
+    pending_jump = match;
+    TreePath path = new TreePath(node.getPath());
+    lib_tree.setSelectionPath(path);
+    lib_tree.scrollPathToVisible(path);
+  }
+
+  // Selects the matched staff of a parsed song node and moves to the matched chord.
+  public static void jumpToMatch(AliasTreeNode song_node, MelodyIndex.Match match) {
+    Song sg = (Song) song_node.getUserObject();
+
+    if (match.getStaff() >= sg.getStaffList().size()) {
+      return;
+    }
+
+    Staff s = sg.getStaffList().get(match.getStaff());
+    AliasTreeNode node = (match.getStaff() == 0) ? song_node :
+        (AliasTreeNode) song_node.getChildAt(match.getStaff()-1);
+    s.goTo(Math.min(match.getPosition(), s.size()-1));
+
+    TreePath path = new TreePath(node.getPath());
+    lib_tree.setSelectionPath(path);
+    lib_tree.scrollPathToVisible(path);
+
+    if (staff != s) {
+      selectLibNode(node);
+    }
+
+    if (staff != s) {
+      return;
+    }
+
+    loadStaff();
+    is_following = true;
+    position_list.setSelectedIndex(start);
+    position_list.ensureIndexIsVisible(start);
+    is_following = false;
+    position_list.requestFocusInWindow();
+  }
+
+  // Finds the node of a file given relative to the library, creating directory nodes that
+  // have not been expanded yet.
+  public static AliasTreeNode findLibNode(String path) {
+    AliasTreeNode node = (AliasTreeNode) lib_tree.getModel().getRoot();
+
+    for (String name : path.split("/")) {
+      if (!node.hasExpanded()) {
+        createLibNodes(node, node.level()+tree_expansion_buffer);
+        nodeChildrenInserted(node);
+      }
+
+      AliasTreeNode child = null;
+
+      for (int i = 0; i < node.getChildCount() && child == null; i++) {
+        AliasTreeNode n = (AliasTreeNode) node.getChildAt(i);
+
+        if (n.getFile() != null && n.getFile().getName().equals(name)) {
+          child = n;
+        }
+      }
+
+      if (child == null) {
+        return null;
+      }
+
+      node = child;
+    }
+
+    return node;
+  }
+
+  public static void collectSongNodes(AliasTreeNode node, HashMap<Path, AliasTreeNode> node_map) {
+    for (int i = 0; i < node.getChildCount(); i++) {
+      AliasTreeNode n = (AliasTreeNode) node.getChildAt(i);
+      Object obj = n.getUserObject();
+
+      if (!(obj instanceof File)) {
+        continue;
+      }
+
+      Path p = ((File) obj).toPath().toAbsolutePath().normalize();
+
+      if (((File) obj).isDirectory()) {
+        collectSongNodes(n, node_map);
+      } else if (!n.hasExpanded() && !n.isLoading() && LibraryIndexer.isMidiFile(p)) {
+        n.setLoading(true);
+        node_map.put(p, n);
+      }
+    }
+  }
+
+  public static void nodeChildrenInserted(AliasTreeNode node) {
+    int[] child_indices = new int[node.getChildCount()];
+
+    for (int i = 0; i < child_indices.length; i++) {
+      child_indices[i] = i;
+    }
+
+    if (child_indices.length > 0) {
+      ((DefaultTreeModel) lib_tree.getModel()).nodesWereInserted(node, child_indices);
+    }
+  }
+
+  public static ExecutorService createSongLoader() {
+    return Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "Song Loader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  // Auditions right away when idle. While requests keep coming, only the latest is kept and
+  // played once they pause for announce_delay, so stale chords are never heard.
+  public static void announce(Runnable r) {
+    if (announce_timer.isRunning()) {
+      pending_announcement = r;
+    } else {
+      pending_announcement = null;
+      r.run();
+    }
+
+    announce_timer.restart();
+  }
+
+  public static void auditionChord(final Chord c, final int mode, final boolean extend) {
+    announce(new Runnable() {
+      @Override
+      public void run() {
+        int pos = c.getPosition();
+        int anchor = position_list.getAnchorSelectionIndex();
+
+        if (extend && anchor >= 0) {
+          if (position_list.getLeadSelectionIndex() != pos) {
+            position_list.setSelectionInterval(anchor, pos);
+          }
+        } else if (position_list.getMinSelectionIndex() != pos ||
+            position_list.getMaxSelectionIndex() != pos) {
+          position_list.setSelectedIndex(pos);
+        }
+
+        position_list.ensureIndexIsVisible(pos);
+        setStatus(c.toString());
+        c.play(seqr, mode);
+      }
+    });
+  }
+
+  public static void auditionNote(final Note n, final int index) {
+    announce(new Runnable() {
+      @Override
+      public void run() {
+        if (!note_list.isSelectedIndex(index)) {
+          note_list.setSelectedIndex(index);
+          note_list.ensureIndexIsVisible(index);
+        }
+
+        setStatus(n.toString());
+        n.play(seqr);
+      }
+    });
+  }
+
+  // Show the chord the player last started, if it belongs to the staff in view.
+  public static void followPlayback() {
+    Player player = Player.get();
+
+    if (player == null || !player.isRunning() || player.getStaff() != staff) {
+      return;
+    }
+
+    long word = player.getPositionWord();
+
+    if (word == followed_word) {
+      return;
+    }
+
+    followed_word = word;
+    int pos = (int) word;
+    setStatus(staff.getChord(pos).toString());
+
+    // Leave the selected range alone while it may be the one being played.
+    if (!ui_component.equals("Position") && !ui_component.equals("Note")) {
+      is_following = true;
+      position_list.setSelectedIndex(pos);
+      position_list.ensureIndexIsVisible(pos);
+      is_following = false;
+    }
+  }
+
+  // Move to the chord last matched by the score follower. Moving elsewhere by hand, or to
+  // another staff, makes the follower expect the chord moved to.
+  public static void followPractice() {
+    if (score_follower == null || !score_follower.isEnabled()) {
+      return;
+    }
+
+    if (score_follower.getStaff() != staff ||
+        (staff != null && staff.getPosition() != practice_pos)) {
+      practice_pos = (staff != null) ? staff.getPosition() : 0;
+      score_follower.setStaff(staff, practice_pos);
+      practice_word = score_follower.getMatchWord();
+      return;
+    }
+
+    long word = score_follower.getMatchWord();
+
+    if (word == practice_word || staff == null) {
+      return;
+    }
+
+    practice_word = word;
+    practice_pos = ScoreFollower.getMatchPosition(word);
+    int deviation = ScoreFollower.getMatchDeviation(word);
+    loadChord(staff.goTo(practice_pos));
+    start = practice_pos;
+    stop = start;
+    setStatus(chord.toString()+", "+((deviation > 0) ? "+" : "")+deviation+" ms");
+
+    is_following = true;
+    position_list.setSelectedIndex(practice_pos);
+    position_list.ensureIndexIsVisible(practice_pos);
+    is_following = false;
+  }
+
+  public static void setMelodyIndex(MelodyIndex index) {
+    melody_index = index;
+
+    if (tune_capture != null) {
+      tune_capture.setIndex(index);
     }
   }
 
@@ -1053,7 +1768,13 @@ lib_tree.expandPath(new TreePath(lib_root));
           midi_in.close();
         }
 
+        if (tune_capture != null) {
+          tune_capture.close();
+        }
+
         if (midi_out != null && midi_out.isOpen()) {
+          Player.close();
+          Audition.close();
           midi_out.close();
         }
 
@@ -1062,6 +1783,7 @@ lib_tree.expandPath(new TreePath(lib_root));
         }
 
         SaveConfig();
+        song_cache.save();
       }
     });
 
@@ -1069,6 +1791,30 @@ lib_tree.expandPath(new TreePath(lib_root));
     DefaultTreeModel m = (DefaultTreeModel) lib_tree.getModel();
     lib_tree.expandPath(new TreePath(m.getRoot()));
     setStatus("No tracks loaded.");
+
+    follow_timer = new Timer(FOLLOW_DELAY, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        followPlayback();
+        followPractice();
+      }
+    });
+
+    follow_timer.start();
+
+    announce_timer = new Timer(announce_delay, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        Runnable r = pending_announcement;
+        pending_announcement = null;
+
+        if (r != null) {
+          r.run();
+        }
+      }
+    });
+
+    announce_timer.setRepeats(false);
   }
 
   public static void main(String[] args) {
@@ -1105,6 +1851,9 @@ lib_tree.expandPath(new TreePath(lib_root));
 
     playback_mode = Chord.SYNCHRONIZED;
     held_keys = new ArrayList<>();
+    song_loader = createSongLoader();
+    song_cache = new SongCache(new File(SONG_CACHE_FILE));
+    song_cache.load();
     lib_dir = new File(lib_path);
 
     if (!lib_dir.exists()) {
@@ -1112,6 +1861,11 @@ lib_tree.expandPath(new TreePath(lib_root));
       configOptions(EDIT_LIBRARY_PATH);
     }
 
+    if (lib_dir != null) {
+      search_index = SearchIndex.load(new File(SEARCH_INDEX_FILE), lib_dir);
+      melody_index = MelodyIndex.load(new File(MELODY_INDEX_FILE), lib_dir);
+    }
+
     if (seqr_info == null || midi_out_info == null) {
       configMidiDevice(SELECT_DEVICES);
     } else {
@@ -1127,14 +1881,19 @@ lib_tree.expandPath(new TreePath(lib_root));
 
   private static class AliasTreeNode extends DefaultMutableTreeNode {
     private String alias;
+    private File file;
     private int level;
     private boolean has_expanded;
+    private boolean is_loading;
 
     public AliasTreeNode(Object userObject, String alias, int level) {
       super(userObject);
       this.alias = alias;
       this.level = level;
+      // Song nodes replace their file with the parsed song, so the file is kept separately.
+      file = (userObject instanceof File) ? (File) userObject : null;
       has_expanded = false;
+      is_loading = false;
     }
 
     public void setAlias(String alias) {
@@ -1146,6 +1905,10 @@ lib_tree.expandPath(new TreePath(lib_root));
       return level;
     }
 
+    public File getFile() {
+      return file;
+    }
+
     public void setExpanded(boolean b) {
       has_expanded = b;
     }
@@ -1154,170 +1917,27 @@ lib_tree.expandPath(new TreePath(lib_root));
       return has_expanded;
     }
 
-    @Override
-    public String toString() {
-      return (alias != null) ? alias : super.toString();
-    }
-  }
-
-  private static class Song {
-    private ArrayList<Staff> staff_list = new ArrayList<>();
-    private ArrayList<Integer> numerator = new ArrayList<>();
-    private ArrayList<Integer> denominator = new ArrayList<>();
-    private ArrayList<Integer> ppq = new ArrayList<>();
-    private ArrayList<Float> mpq = new ArrayList<>();;
-    String description = "";
-
-    public Song(Track[] track_list, String song_title) {
-      Staff merged_staff = null;
-
-      for (Track t : track_list) {
-        Staff s = new Staff(t);
-
-        if (s.size() > 0) {
-          merged_staff = Staff.merge(merged_staff, s);
-        }
-      }
-
-      merged_staff.setDescription(song_title);
-      merged_staff.resetPosition();
-      staff_list.add(merged_staff);
-      int track_num = 1;
-      String staff_name = "";
-
-      for (Track t : track_list) {
-        Staff s = new Staff(t);
-
-        if (s.size() == 0) {
-          continue;
-        }
-
-        if (track_num == 1 && track_list.length == 2) {
-          staff_name = "Piano Right";
-        } else if (track_num == 2 && track_list.length == 2) {
-          staff_name = "Piano Left";
-        } else {
-          staff_name = "Staff "+track_num;
-        }
-
-        s.setDescription(staff_name);
-        staff_list.add(s);
-        track_num++;
-      }
-    }
-
-    public void setResolution(int ppq) {
-      for (Staff s : staff_list) {
-        s.setResolution(ppq);
-      }
-    }
-
-    public LinkedHashMap<String, String> getConfigOptions() {
-      LinkedHashMap<String, String> options = new LinkedHashMap<>();
-      String aggregated_numerator = "";
-      String aggregated_denominator = "";
-      String aggregated_ppq = "";
-      String aggregated_mpq = "";
-
-      for (int i = 0; i < staff_list.size(); i++) {
-        Staff s = staff_list.get(i);
-
-        if (i == 0) {
-          LinkedHashMap<String, String> init_options = s.getConfigOptions();
-          aggregated_numerator = init_options.get("Numerator");
-          aggregated_denominator = init_options.get("Denominator");
-          aggregated_ppq = init_options.get("Pulses/Ticks per Quarter Note (PPQ)");
-          aggregated_mpq = init_options.get("Microseconds per Quarter Note (MPQ)");
-          continue;
-        }
-
-        options = s.getConfigOptions();
-        String numerator = options.get("Numerator");
-
-        if (!numerator.equals(aggregated_numerator)) {
-          aggregated_numerator += "; "+numerator;
-        }
-
-        String denominator = options.get("Denominator");
-
-        if (!denominator.equals( aggregated_denominator)) {
-          aggregated_denominator += "; "+denominator;;
-        }
-
-        String ppq = options.get("Pulses/Ticks per Quarter Note (PPQ)");
-
-        if (!ppq.equals(aggregated_ppq)) {
-          aggregated_ppq += "; "+ppq;
-        }
-
-        String mpq = options.get("Microseconds per Quarter Note (MPQ)");
-
-        if (!mpq.equals(aggregated_mpq)) {
-          aggregated_mpq += "; "+mpq;
-        }
-      }
-
-      options.put("Numerator", aggregated_numerator);
-      options.put("Denominator", aggregated_denominator);
-      options.put("Pulses/Ticks per Quarter Note (PPQ)", aggregated_ppq);
-      options.put("Microseconds per Quarter Note (MPQ)", aggregated_mpq);
-      return options;
+    public void setLoading(boolean b) {
+      is_loading = b;
     }
 
-    public void setConfigOptions(LinkedHashMap<String, String> options) {
-      LinkedHashMap<String, String> prev_options = this.getConfigOptions();
-
-      for (Staff s : staff_list) {
-        String numerator = options.get("Numerator");
-        String denominator = options.get("Denominator");
-        String ppq = options.get("Pulses/Ticks per Quarter Note (PPQ)");
-        String mpq = options.get("Microseconds per Quarter Note (MPQ)");
-
-        if (!prev_options.get("Numerator").equals(numerator)) {
-          s.setNumerator(Integer.parseInt(numerator));
-        }
-
-        if (!prev_options.get("Denominator").equals(denominator)) {
-          s.setDenominator(Integer.parseInt(denominator));
-        }
-
-        if (!prev_options.get("Pulses/Ticks per Quarter Note (PPQ)").equals(ppq)) {
-          s.setPPQ(Integer.parseInt(ppq));
-        }
-
-        if (!prev_options.get("Microseconds per Quarter Note (MPQ)").equals(mpq)) {
-          s.setMPQ(Float.parseFloat(mpq));
-        }
-      }
+    public boolean isLoading() {
+      return is_loading;
     }
 
-    public void syncTickPosition(long tick) {
-      for (Staff s : staff_list) {
-        while (s.getChord(s.getPosition()).getTick() < tick) {
-          if (s.getPosition() == s.size()-1) {
-            break;
-          } else {
-            s.moveForward();
-          }
-        }
-
-        while (s.getChord(s.getPosition()).getTick() > tick) {
-          if (s.getPosition() == 0) {
-            break;
-          } else {
-            s.moveBack();
-          }
-        }
+    @Override
+    public boolean isLeaf() {
+      // Unexpanded directories and unparsed songs may still have children.
+      if (!has_expanded && userObject instanceof File) {
+        return false;
       }
-    }
 
-    public ArrayList<Staff> getStaffList() {
-      return staff_list;
+      return super.isLeaf();
     }
 
     @Override
     public String toString() {
-      return staff_list.get(0).toString();
+      return (alias != null) ? alias : super.toString();
     }
   }
 
@@ -0,0 +1,212 @@
+/***************************************************************************************************
+Class Name: BatchScanner
+***************************************************************************************************/
+
+package library_components;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.BufferedWriter;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import music_sheet_components.*;
+
+// Scans a library without a display or MIDI devices, writing one line of statistics per song
+// as soon as it is loaded, so memory does not grow with the library.
+public class BatchScanner implements LibraryIndexer.SongListener {
+  public static final String USAGE = "Usage: java library_components.BatchScanner <library dir> "+
+      "[--format csv|json] [--output <file>] [--cache <file>] [--threads <n>]";
+  public static final String[] CSV_HEADER = {"path", "title", "tracks", "chords", "notes",
+      "duration_seconds", "tempo_bpm", "time_signature", "status"};
+
+  private PrintWriter out;
+  private boolean is_json;
+  private int song_count;
+  private int error_count;
+
+  public BatchScanner(PrintWriter out, boolean is_json) {
+    this.out = out;
+    this.is_json = is_json;
+
+    if (!is_json) {
+      writeCSV(CSV_HEADER);
+    }
+  }
+
+  public static void main(String[] args) {
+    File lib_dir = null;
+    File output_file = null;
+    File cache_file = null;
+    boolean is_json = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals("--format") && i+1 < args.length) {
+          is_json = args[++i].equalsIgnoreCase("json");
+        } else if (args[i].equals("--output") && i+1 < args.length) {
+          output_file = new File(args[++i]);
+        } else if (args[i].equals("--cache") && i+1 < args.length) {
+          cache_file = new File(args[++i]);
+        } else if (args[i].equals("--threads") && i+1 < args.length) {
+          threads = Math.max(1, Integer.parseInt(args[++i]));
+        } else if (lib_dir == null && !args[i].startsWith("--")) {
+          lib_dir = new File(args[i]);
+        } else {
+          lib_dir = null;
+          break;
+        }
+      }
+    } catch(NumberFormatException e) {
+      lib_dir = null;
+    }
+
+    if (lib_dir == null || !lib_dir.isDirectory()) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    // Parsing falls back on the default time signature and tempo.
+    Properties config = new Properties();
+    Staff.loadConfig(config);
+    Chord.loadConfig(config);
+    Note.loadConfig(config);
+
+    // Statistics own standard output; diagnostics from the loaders go to standard error.
+    PrintStream stdout = System.out;
+    System.setOut(System.err);
+
+    try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+        output_file != null ? new FileOutputStream(output_file) : stdout,
+        StandardCharsets.UTF_8)))) {
+      SongCache cache = null;
+
+      if (cache_file != null) {
+        cache = new SongCache(cache_file);
+        cache.load();
+      }
+
+      BatchScanner scanner = new BatchScanner(out, is_json);
+      LibraryIndexer indexer = new LibraryIndexer(threads, cache);
+      indexer.index(lib_dir, scanner);
+      indexer.finish();
+
+      if (cache != null) {
+        cache.save();
+      }
+
+      System.err.println("Scanned "+scanner.getSongCount()+" songs, "+
+          scanner.getErrorCount()+" failed.");
+    } catch(IOException | InterruptedException e) {
+      System.err.println(e);
+      System.exit(1);
+    }
+  }
+
+  @Override
+  public void songLoaded(File f, Song sg) {
+    String[] fields = new String[CSV_HEADER.length];
+    fields[0] = f.getPath();
+    fields[8] = "error";
+
+    if (sg != null) {
+      Staff s = sg.getStaffList().get(0);
+      long end_tick = s.getEndTick();
+
+      fields[1] = sg.toString();
+      fields[2] = Integer.toString(sg.getTrackCount());
+      fields[3] = Integer.toString(s.size());
+      fields[4] = Integer.toString(s.getNoteCount());
+      fields[5] = String.format(Locale.ROOT, "%.3f",
+          end_tick*(double) s.getMPQ()/s.getPPQ()/1000000);
+      fields[6] = String.format(Locale.ROOT, "%.2f", 60000000/s.getMPQ());
+      fields[7] = s.getNumerator()+"/"+s.getDenominator();
+      fields[8] = "ok";
+    }
+
+    synchronized (this) {
+      if (is_json) {
+        writeJSON(fields);
+      } else {
+        writeCSV(fields);
+      }
+
+      song_count++;
+
+      if (sg == null) {
+        error_count++;
+      }
+    }
+  }
+
+  public synchronized int getSongCount() {
+    return song_count;
+  }
+
+  public synchronized int getErrorCount() {
+    return error_count;
+  }
+
+  private void writeCSV(String[] fields) {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < fields.length; i++) {
+      String field = (fields[i] != null) ? fields[i] : "";
+
+      if (i > 0) {
+        sb.append(',');
+      }
+
+      if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+        sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+      } else {
+        sb.append(field);
+      }
+    }
+
+    out.println(sb);
+  }
+
+  // Writes one JSON object per line. Counts and measures are numbers, everything else strings.
+  private void writeJSON(String[] fields) {
+    StringBuilder sb = new StringBuilder("{");
+
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+
+      sb.append('"').append(CSV_HEADER[i]).append("\": ");
+
+      if (fields[i] == null) {
+        sb.append("null");
+      } else if (i >= 2 && i <= 6) {
+        sb.append(fields[i]);
+      } else {
+        sb.append('"');
+
+        for (char c : fields[i].toCharArray()) {
+          if (c == '"' || c == '\\') {
+            sb.append('\\').append(c);
+          } else if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+        }
+
+        sb.append('"');
+      }
+    }
+
+    out.println(sb.append('}'));
+  }
+}
@@ -0,0 +1,128 @@
+/***************************************************************************************************
+Class Name: LibraryIndexer
+***************************************************************************************************/
+
+package library_components;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import music_sheet_components.Song;
+
+public class LibraryIndexer {
+  private ExecutorService pool;
+  private SongCache cache;
+
+  public interface SongListener {
+    public void songLoaded(File f, Song sg);
+  }
+
+  public LibraryIndexer() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public LibraryIndexer(int threads) {
+    pool = Executors.newWorkStealingPool(threads);
+  }
+
+  public LibraryIndexer(SongCache cache) {
+    this();
+    this.cache = cache;
+  }
+
+  public LibraryIndexer(int threads, SongCache cache) {
+    this(threads);
+    this.cache = cache;
+  }
+
+  public static boolean isMidiFile(Path p) {
+    String name = p.getFileName().toString().toLowerCase();
+    return name.endsWith(".mid") || name.endsWith(".midi");
+  }
+
+  public void index(File dir, SongListener listener) throws IOException {
+    Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+        if (pool.isShutdown()) {
+          return FileVisitResult.TERMINATE;
+        }
+
+        if (attrs.isRegularFile() && isMidiFile(p)) {
+          try {
+            pool.execute(new SongTask(p.toFile(), cache, listener));
+          } catch(RejectedExecutionException e) {
+            return FileVisitResult.TERMINATE;
+          }
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path p, IOException e) {
+        System.out.println(e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // Loads a single song on the pool.
+  public void load(File f, SongListener listener) {
+    try {
+      pool.execute(new SongTask(f, cache, listener));
+    } catch(RejectedExecutionException e) {
+      System.out.println(e);
+    }
+  }
+
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  // Waits for the songs already submitted to load, then stops the pool.
+  public void finish() throws InterruptedException {
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  private static class SongTask implements Runnable {
+    private File f;
+    private SongCache cache;
+    private SongListener listener;
+
+    public SongTask(File f, SongCache cache, SongListener listener) {
+      this.f = f;
+      this.cache = cache;
+      this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+      Song sg = null;
+
+      try {
+        sg = (cache != null) ? cache.read(f) : Song.read(f);
+      } catch(InvalidMidiDataException | IOException | RuntimeException e) {
+        // The song is reported as failed whatever broke, so the listener always hears of it.
+        System.out.println("Error indexing "+f.getPath());
+        System.out.println(e);
+      }
+
+      listener.songLoaded(f, sg);
+    }
+  }
+}
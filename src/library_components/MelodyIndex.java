@@ -0,0 +1,541 @@
+/***************************************************************************************************
+Class Name: MelodyIndex
+***************************************************************************************************/
+
+package library_components;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import music_sheet_components.*;
+
+// An index from melodic n-grams to the staves of a library. The melody of a staff is the top
+// note of each chord; an n-gram is the run of intervals between GRAM+1 successive melody notes,
+// so a tune is found in any key. Each n-gram keeps the delta coded song, staff and chord
+// position of every place it starts. The melodies themselves are kept so that a rebuild only
+// reads the songs that changed.
+public class MelodyIndex {
+  public static final int MAGIC = 0x4d4d4d49; // "MMMI"
+  public static final int VERSION = 2;
+  public static final int GRAM = 3;
+  public static final int PERCUSSION_CHANNEL = 9;
+  public static final int MAX_STAVES = 4096;
+  // N-grams more common than this only add hits to places found through rarer n-grams.
+  public static final int MAX_GRAM_POSTINGS = 100000;
+
+  public static final String[] NOTE_LETTERS = {"c", "d", "e", "f", "g", "a", "b"};
+  public static final int[] NOTE_STEPS = {0, 2, 4, 5, 7, 9, 11};
+
+  private String root_path;
+  private String[] doc_paths; // relative to the library root, separated by '/'
+  private long[] doc_sizes;
+  private long[] doc_modified;
+  private byte[][][] doc_melodies;
+  private int[] grams; // sorted
+  private int[] posting_offsets;
+  private int[] posting_counts;
+  private byte[] postings;
+
+  public static class Match {
+    private int doc;
+    private int staff;
+    private int pos;
+    private int hits;
+
+    Match(int doc, int staff, int pos) {
+      this.doc = doc;
+      this.staff = staff;
+      this.pos = pos;
+    }
+
+    Match(int doc, int staff, int pos, int hits) {
+      this(doc, staff, pos);
+      this.hits = hits;
+    }
+
+    public int getDoc() {
+      return doc;
+    }
+
+    // Index into the song's staff list, where 0 is the merged staff of all tracks.
+    public int getStaff() {
+      return staff;
+    }
+
+    // Chord position of the first query note.
+    public int getPosition() {
+      return pos;
+    }
+
+    public int getHits() {
+      return hits;
+    }
+  }
+
+  private static class GramWriter {
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private int count;
+    private int doc;
+    private int staff = -1;
+    private int pos;
+  }
+
+  private MelodyIndex() {}
+
+  // Reads the melodies of the MIDI files under lib_dir in parallel through the song cache. Songs
+  // whose size and modification time match the previous index keep the melodies it holds.
+  public static MelodyIndex build(File lib_dir, SongCache cache, MelodyIndex previous)
+      throws IOException, InterruptedException {
+    Path root = lib_dir.toPath().toAbsolutePath().normalize();
+    HashMap<String, Integer> previous_docs = new HashMap<>();
+
+    if (previous != null && previous.root_path.equals(root.toString())) {
+      for (int i = 0; i < previous.doc_paths.length; i++) {
+        previous_docs.put(previous.doc_paths[i], i);
+      }
+    }
+
+    TreeMap<String, long[]> file_map = new TreeMap<>();
+    ConcurrentHashMap<String, byte[][]> melody_map = new ConcurrentHashMap<>();
+    LibraryIndexer indexer = new LibraryIndexer(cache);
+
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile() || !LibraryIndexer.isMidiFile(p)) {
+          return FileVisitResult.CONTINUE;
+        }
+
+        String path = root.relativize(p).toString().replace(File.separatorChar, '/');
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Integer i = previous_docs.get(path);
+        file_map.put(path, new long[] {size, modified});
+
+        if (i != null && previous.doc_sizes[i] == size && previous.doc_modified[i] == modified) {
+          melody_map.put(path, previous.doc_melodies[i]);
+        } else {
+          indexer.load(p.toFile(), new LibraryIndexer.SongListener() {
+            @Override
+            public void songLoaded(File f, Song sg) {
+              melody_map.put(path, (sg != null) ? melodies(sg) : new byte[0][]);
+            }
+          });
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path p, IOException e) {
+        System.out.println(e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    indexer.finish();
+
+    MelodyIndex index = new MelodyIndex();
+    index.root_path = root.toString();
+    index.doc_paths = file_map.keySet().toArray(new String[0]);
+    index.doc_sizes = new long[index.doc_paths.length];
+    index.doc_modified = new long[index.doc_paths.length];
+    index.doc_melodies = new byte[index.doc_paths.length][][];
+
+    for (int i = 0; i < index.doc_paths.length; i++) {
+      long[] attrs = file_map.get(index.doc_paths[i]);
+      index.doc_sizes[i] = attrs[0];
+      index.doc_modified[i] = attrs[1];
+      index.doc_melodies[i] = melody_map.getOrDefault(index.doc_paths[i], new byte[0][]);
+    }
+
+    index.invert(index.doc_melodies);
+    return index;
+  }
+
+  // The top key of each chord of every staff, ignoring percussion; -1 where a chord has only
+  // percussion notes.
+  public static byte[][] melodies(Song sg) {
+    ArrayList<Staff> staff_list = sg.getStaffList();
+    byte[][] melodies = new byte[Math.min(staff_list.size(), MAX_STAVES)][];
+
+    for (int i = 0; i < melodies.length; i++) {
+      Staff s = staff_list.get(i);
+      melodies[i] = new byte[s.size()];
+
+      for (int pos = 0; pos < s.size(); pos++) {
+        melodies[i][pos] = -1;
+
+        // Chord notes are kept from the highest key down.
+        for (int j = 0; j < s.getChordSize(pos); j++) {
+          int n = s.getNoteIndex(pos, j);
+
+          if (s.getNoteChannel(n) != PERCUSSION_CHANNEL) {
+            melodies[i][pos] = (byte) s.getNoteKey(n);
+            break;
+          }
+        }
+      }
+    }
+
+    return melodies;
+  }
+
+  // Packs the intervals following keys[i] into an n-gram, or returns -1 when a key is missing.
+  public static int gram(int[] keys, int i) {
+    int g = 0;
+
+    for (int j = i; j < i+GRAM; j++) {
+      if (keys[j] < 0 || keys[j+1] < 0) {
+        return -1;
+      }
+
+      g = (g << 8) | (keys[j+1]-keys[j]+128);
+    }
+
+    return g;
+  }
+
+  private void invert(byte[][][] doc_melodies) {
+    HashMap<Integer, GramWriter> writer_map = new HashMap<>();
+    int[] keys = new int[0];
+
+    for (int doc = 0; doc < doc_melodies.length; doc++) {
+      for (int staff = 0; staff < doc_melodies[doc].length; staff++) {
+        byte[] melody = doc_melodies[doc][staff];
+
+        if (keys.length < melody.length) {
+          keys = new int[melody.length];
+        }
+
+        for (int pos = 0; pos < melody.length; pos++) {
+          keys[pos] = melody[pos];
+        }
+
+        for (int pos = 0; pos+GRAM < melody.length; pos++) {
+          int g = gram(keys, pos);
+
+          if (g < 0) {
+            continue;
+          }
+
+          GramWriter w = writer_map.get(g);
+
+          if (w == null) {
+            w = new GramWriter();
+            writer_map.put(g, w);
+          }
+
+          // Positions are delta coded within a staff, songs across the whole list.
+          writeVarInt(w.bytes, doc-w.doc);
+
+          if (doc == w.doc && staff == w.staff) {
+            writeVarInt(w.bytes, 0);
+            writeVarInt(w.bytes, pos-w.pos);
+          } else {
+            writeVarInt(w.bytes, staff+1);
+            writeVarInt(w.bytes, pos);
+          }
+
+          w.doc = doc;
+          w.staff = staff;
+          w.pos = pos;
+          w.count++;
+        }
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    grams = new int[writer_map.size()];
+    posting_offsets = new int[grams.length+1];
+    posting_counts = new int[grams.length];
+    int t = 0;
+
+    for (int g : writer_map.keySet()) {
+      grams[t++] = g;
+    }
+
+    Arrays.sort(grams);
+
+    for (t = 0; t < grams.length; t++) {
+      GramWriter w = writer_map.get(grams[t]);
+      posting_offsets[t] = bytes.size();
+      posting_counts[t] = w.count;
+      bytes.write(w.bytes.toByteArray(), 0, w.bytes.size());
+    }
+
+    posting_offsets[t] = bytes.size();
+    postings = bytes.toByteArray();
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, int v) {
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+
+    out.write(v);
+  }
+
+  // Places where the tune may start, ranked by the number of its n-grams found there. Only the
+  // posting lists of the query's n-grams are read.
+  public Match[] search(int[] keys, int limit) {
+    HashMap<Long, Match> match_map = new HashMap<>();
+    ArrayList<int[]> query_grams = new ArrayList<>();
+
+    for (int i = 0; i+GRAM < keys.length; i++) {
+      int g = gram(keys, i);
+      int t = (g < 0) ? -1 : Arrays.binarySearch(grams, g);
+
+      if (t >= 0) {
+        query_grams.add(new int[] {t, i});
+      }
+    }
+
+    // Rare n-grams go first so common ones mostly add to places already found.
+    Collections.sort(query_grams, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        return Integer.compare(posting_counts[a[0]], posting_counts[b[0]]);
+      }
+    });
+
+    for (int k = 0; k < query_grams.size(); k++) {
+      int t = query_grams.get(k)[0];
+      int offset = query_grams.get(k)[1];
+      boolean is_common = k > 0 && posting_counts[t] > MAX_GRAM_POSTINGS;
+      int[] p = {posting_offsets[t]};
+      int doc = 0;
+      int staff = 0;
+      int pos = 0;
+
+      while (p[0] < posting_offsets[t+1]) {
+        doc += readVarInt(p);
+        int s = readVarInt(p);
+
+        if (s == 0) {
+          pos += readVarInt(p);
+        } else {
+          staff = s-1;
+          pos = readVarInt(p);
+        }
+
+        if (pos < offset) {
+          continue;
+        }
+
+        long id = ((long) doc << 44) | ((long) staff << 32) | (pos-offset);
+        Match m = match_map.get(id);
+
+        if (m == null) {
+          if (is_common) {
+            continue;
+          }
+
+          m = new Match(doc, staff, pos-offset);
+          match_map.put(id, m);
+        }
+
+        m.hits++;
+      }
+    }
+
+    ArrayList<Match> matches = new ArrayList<>(match_map.values());
+
+    Collections.sort(matches, new Comparator<Match>() {
+      @Override
+      public int compare(Match a, Match b) {
+        if (a.hits != b.hits) {
+          return Integer.compare(b.hits, a.hits);
+        } else if (a.doc != b.doc) {
+          return Integer.compare(a.doc, b.doc);
+        } else if (a.staff != b.staff) {
+          return Integer.compare(a.staff, b.staff);
+        }
+
+        return Integer.compare(a.pos, b.pos);
+      }
+    });
+
+    return matches.subList(0, Math.min(limit, matches.size())).toArray(new Match[0]);
+  }
+
+  private int readVarInt(int[] p) {
+    int v = 0;
+    int shift = 0;
+    int b;
+
+    do {
+      b = postings[p[0]++];
+      v |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return v;
+  }
+
+  // Keys of notes such as "e5 d#5 e5 d#5 e b g#4", numbers such as "76 75 76", or both.
+  // A name without an octave takes the octave closest to the previous note; C4 is key 60.
+  public static int[] parseNotes(String text) throws NumberFormatException {
+    String[] tokens = text.trim().toLowerCase().split("[\\s,]+");
+    int[] keys = new int[tokens.length];
+    int count = 0;
+
+    for (String token : tokens) {
+      if (token.isEmpty()) {
+        continue;
+      }
+
+      int letter = Arrays.asList(NOTE_LETTERS).indexOf(token.substring(0, 1));
+      int key;
+
+      if (letter < 0) {
+        key = Integer.parseInt(token);
+      } else {
+        int step = NOTE_STEPS[letter];
+        int i = 1;
+
+        for (; i < token.length() && (token.charAt(i) == '#' || token.charAt(i) == 'b'); i++) {
+          step += (token.charAt(i) == '#') ? 1 : -1;
+        }
+
+        if (i < token.length()) {
+          key = (Integer.parseInt(token.substring(i))+1)*12+step;
+        } else {
+          int last = (count > 0) ? keys[count-1] : 60;
+          key = last+Math.floorMod(step-last+6, 12)-6;
+        }
+      }
+
+      if (key < 0 || key > 127) {
+        throw new NumberFormatException("Note out of range: "+token);
+      }
+
+      keys[count++] = key;
+    }
+
+    return Arrays.copyOf(keys, count);
+  }
+
+  public String getRootPath() {
+    return root_path;
+  }
+
+  public int size() {
+    return doc_paths.length;
+  }
+
+  public String getPath(int doc) {
+    return doc_paths[doc];
+  }
+
+  public void save(File f) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(f)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(root_path);
+      out.writeInt(doc_paths.length);
+
+      for (int i = 0; i < doc_paths.length; i++) {
+        out.writeUTF(doc_paths[i]);
+        out.writeLong(doc_sizes[i]);
+        out.writeLong(doc_modified[i]);
+        out.writeInt(doc_melodies[i].length);
+
+        for (byte[] melody : doc_melodies[i]) {
+          out.writeInt(melody.length);
+          out.write(melody);
+        }
+      }
+
+      out.writeInt(grams.length);
+
+      for (int t = 0; t < grams.length; t++) {
+        out.writeInt(grams[t]);
+        out.writeInt(posting_counts[t]);
+        out.writeInt(posting_offsets[t+1]-posting_offsets[t]);
+      }
+
+      out.write(postings);
+    }
+  }
+
+  // Returns null when the file is missing, unreadable or indexes another library.
+  public static MelodyIndex load(File f, File lib_dir) {
+    if (!f.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(f)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+
+      MelodyIndex index = new MelodyIndex();
+      index.root_path = in.readUTF();
+
+      if (!index.root_path.equals(lib_dir.toPath().toAbsolutePath().normalize().toString())) {
+        return null;
+      }
+
+      int doc_count = in.readInt();
+      index.doc_paths = new String[doc_count];
+      index.doc_sizes = new long[doc_count];
+      index.doc_modified = new long[doc_count];
+      index.doc_melodies = new byte[doc_count][][];
+
+      for (int i = 0; i < doc_count; i++) {
+        index.doc_paths[i] = in.readUTF();
+        index.doc_sizes[i] = in.readLong();
+        index.doc_modified[i] = in.readLong();
+        index.doc_melodies[i] = new byte[in.readInt()][];
+
+        for (int j = 0; j < index.doc_melodies[i].length; j++) {
+          index.doc_melodies[i][j] = new byte[in.readInt()];
+          in.readFully(index.doc_melodies[i][j]);
+        }
+      }
+
+      int gram_count = in.readInt();
+      index.grams = new int[gram_count];
+      index.posting_counts = new int[gram_count];
+      index.posting_offsets = new int[gram_count+1];
+
+      for (int t = 0; t < gram_count; t++) {
+        index.grams[t] = in.readInt();
+        index.posting_counts[t] = in.readInt();
+        index.posting_offsets[t+1] = index.posting_offsets[t]+in.readInt();
+      }
+
+      index.postings = new byte[index.posting_offsets[gram_count]];
+      in.readFully(index.postings);
+      return index;
+    } catch(IOException e) {
+      System.out.println(e);
+      return null;
+    }
+  }
+}
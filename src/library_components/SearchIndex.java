@@ -0,0 +1,397 @@
+/***************************************************************************************************
+Class Name: SearchIndex
+***************************************************************************************************/
+
+package library_components;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import music_sheet_components.*;
+
+// An inverted index from words of the file path and song metadata to the songs of a library.
+// Songs are numbered in path order; each word keeps the delta coded numbers of its songs.
+public class SearchIndex {
+  public static final int MAGIC = 0x4d4d5349; // "MMSI"
+  public static final int VERSION = 1;
+  public static final int MIDI_TRACK_NAME = 0x03;
+  public static final int MIDI_KEY_SIGNATURE = 0x59;
+
+  public static final String[] MAJOR_KEYS =
+      {"C flat", "G flat", "D flat", "A flat", "E flat", "B flat", "F",
+      "C", "G", "D", "A", "E", "B", "F sharp", "C sharp"};
+  public static final String[] MINOR_KEYS =
+      {"A flat", "E flat", "B flat", "F", "C", "G", "D",
+      "A", "E", "B", "F sharp", "C sharp", "G sharp", "D sharp", "A sharp"};
+
+  private String root_path;
+  private String[] doc_paths; // relative to the library root, separated by '/'
+  private long[] doc_sizes;
+  private long[] doc_modified;
+  private String[] doc_metadata;
+  private String[] terms; // sorted
+  private int[] posting_offsets;
+  private byte[] postings;
+
+  private SearchIndex() {}
+
+  // Indexes every MIDI file under lib_dir. Songs unchanged since the previous index keep
+  // their metadata; the others are loaded in parallel through the song cache.
+  public static SearchIndex build(File lib_dir, SongCache cache, SearchIndex previous)
+      throws IOException, InterruptedException {
+    Path root = lib_dir.toPath().toAbsolutePath().normalize();
+    HashMap<String, Integer> previous_docs = new HashMap<>();
+
+    if (previous != null && previous.root_path.equals(root.toString())) {
+      for (int i = 0; i < previous.doc_paths.length; i++) {
+        previous_docs.put(previous.doc_paths[i], i);
+      }
+    }
+
+    TreeMap<String, long[]> file_map = new TreeMap<>();
+    ConcurrentHashMap<String, String> metadata_map = new ConcurrentHashMap<>();
+    LibraryIndexer indexer = new LibraryIndexer(cache);
+
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile() || !LibraryIndexer.isMidiFile(p)) {
+          return FileVisitResult.CONTINUE;
+        }
+
+        String path = root.relativize(p).toString().replace(File.separatorChar, '/');
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Integer i = previous_docs.get(path);
+        file_map.put(path, new long[] {size, modified});
+
+        if (i != null && previous.doc_sizes[i] == size && previous.doc_modified[i] == modified) {
+          metadata_map.put(path, previous.doc_metadata[i]);
+        } else {
+          indexer.load(p.toFile(), new LibraryIndexer.SongListener() {
+            @Override
+            public void songLoaded(File f, Song sg) {
+              metadata_map.put(path, (sg != null) ? describe(sg) : "");
+            }
+          });
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path p, IOException e) {
+        System.out.println(e);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    indexer.finish();
+
+    SearchIndex index = new SearchIndex();
+    index.root_path = root.toString();
+    index.doc_paths = file_map.keySet().toArray(new String[0]);
+    index.doc_sizes = new long[index.doc_paths.length];
+    index.doc_modified = new long[index.doc_paths.length];
+    index.doc_metadata = new String[index.doc_paths.length];
+
+    for (int i = 0; i < index.doc_paths.length; i++) {
+      long[] attrs = file_map.get(index.doc_paths[i]);
+      index.doc_sizes[i] = attrs[0];
+      index.doc_modified[i] = attrs[1];
+      index.doc_metadata[i] = metadata_map.getOrDefault(index.doc_paths[i], "");
+    }
+
+    index.invert();
+    return index;
+  }
+
+  // Tempo, time signature, key, duration and track names of a song, as searchable text.
+  public static String describe(Song sg) {
+    Staff s = sg.getStaffList().get(0);
+    StringBuilder sb = new StringBuilder();
+    sb.append(Math.round(60000000/s.getMPQ())).append(" bpm, ");
+    sb.append(s.getNumerator()).append('/').append(s.getDenominator()).append(", ");
+
+    long seconds = (long)(s.getEndTick()*(double) s.getMPQ()/s.getPPQ()/1000000);
+    String key = null;
+    LinkedHashSet<String> track_names = new LinkedHashSet<>();
+
+    for (Staff ts : sg.getStaffList()) {
+      for (MidiEvent e : ts.getMetaEventList()) {
+        MetaMessage meta = (MetaMessage) e.getMessage();
+        byte[] data = meta.getData();
+
+        if (meta.getType() == MIDI_KEY_SIGNATURE && key == null && data.length >= 2 &&
+            data[0] >= -7 && data[0] <= 7) {
+          key = (data[1] == 0) ? MAJOR_KEYS[data[0]+7]+" major" : MINOR_KEYS[data[0]+7]+" minor";
+        } else if (meta.getType() == MIDI_TRACK_NAME) {
+          String name = new String(data, StandardCharsets.ISO_8859_1).trim();
+
+          if (!name.isEmpty()) {
+            track_names.add(name);
+          }
+        }
+      }
+    }
+
+    if (key != null) {
+      sb.append(key).append(", ");
+    }
+
+    sb.append(seconds/60).append(':').append(String.format(Locale.ROOT, "%02d", seconds%60));
+
+    for (String name : track_names) {
+      sb.append(", ").append(name);
+    }
+
+    return sb.toString();
+  }
+
+  // Lower case words of letters and digits; '/' is kept between digits, as in "3/4".
+  public static ArrayList<String> tokenize(String text) {
+    ArrayList<String> tokens = new ArrayList<>();
+    int start = -1;
+
+    for (int i = 0; i <= text.length(); i++) {
+      char c = (i < text.length()) ? text.charAt(i) : ' ';
+      boolean is_word = Character.isLetterOrDigit(c) ||
+          (c == '/' && start >= 0 && Character.isDigit(text.charAt(i-1)) &&
+          i+1 < text.length() && Character.isDigit(text.charAt(i+1)));
+
+      if (is_word && start < 0) {
+        start = i;
+      } else if (!is_word && start >= 0) {
+        tokens.add(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+
+    return tokens;
+  }
+
+  private void invert() {
+    TreeMap<String, ArrayList<Integer>> term_map = new TreeMap<>();
+
+    for (int i = 0; i < doc_paths.length; i++) {
+      LinkedHashSet<String> doc_terms = new LinkedHashSet<>(tokenize(doc_paths[i]));
+      doc_terms.addAll(tokenize(doc_metadata[i]));
+
+      for (String term : doc_terms) {
+        ArrayList<Integer> list = term_map.get(term);
+
+        if (list == null) {
+          list = new ArrayList<>();
+          term_map.put(term, list);
+        }
+
+        list.add(i);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    terms = new String[term_map.size()];
+    posting_offsets = new int[term_map.size()+1];
+    int t = 0;
+
+    for (Map.Entry<String, ArrayList<Integer>> entry : term_map.entrySet()) {
+      terms[t] = entry.getKey();
+      posting_offsets[t] = bytes.size();
+      int last = 0;
+
+      for (int doc : entry.getValue()) {
+        writeVarInt(bytes, doc-last);
+        last = doc;
+      }
+
+      t++;
+    }
+
+    posting_offsets[t] = bytes.size();
+    postings = bytes.toByteArray();
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, int v) {
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+
+    out.write(v);
+  }
+
+  // Songs matching every word of the query, each word as a prefix, in path order.
+  public int[] search(String query, int limit) {
+    ArrayList<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+
+    if (tokens.isEmpty()) {
+      return new int[0];
+    }
+
+    // A song's mark counts the query words matched so far, so no sets are built per word.
+    int[] marks = new int[doc_paths.length];
+
+    for (int k = 0; k < tokens.size(); k++) {
+      // Terms sharing the prefix are contiguous in sorted order.
+      int first = findTerm(tokens.get(k));
+      int last = findTerm(tokens.get(k)+Character.MAX_VALUE);
+
+      for (int t = first; t < last; t++) {
+        int doc = 0;
+        int p = posting_offsets[t];
+
+        while (p < posting_offsets[t+1]) {
+          int delta = 0;
+          int shift = 0;
+          int b;
+
+          do {
+            b = postings[p++];
+            delta |= (b & 0x7f) << shift;
+            shift += 7;
+          } while ((b & 0x80) != 0);
+
+          doc += delta;
+
+          if (marks[doc] == k) {
+            marks[doc] = k+1;
+          }
+        }
+      }
+    }
+
+    int count = 0;
+    int[] results = new int[Math.min(limit, doc_paths.length)];
+
+    for (int i = 0; i < marks.length && count < results.length; i++) {
+      if (marks[i] == tokens.size()) {
+        results[count++] = i;
+      }
+    }
+
+    return Arrays.copyOf(results, count);
+  }
+
+  private int findTerm(String term) {
+    int t = Arrays.binarySearch(terms, term);
+    return (t < 0) ? -t-1 : t;
+  }
+
+  public String getRootPath() {
+    return root_path;
+  }
+
+  public int size() {
+    return doc_paths.length;
+  }
+
+  public String getPath(int doc) {
+    return doc_paths[doc];
+  }
+
+  public String getMetadata(int doc) {
+    return doc_metadata[doc];
+  }
+
+  public void save(File f) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(f)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(root_path);
+      out.writeInt(doc_paths.length);
+
+      for (int i = 0; i < doc_paths.length; i++) {
+        out.writeUTF(doc_paths[i]);
+        out.writeLong(doc_sizes[i]);
+        out.writeLong(doc_modified[i]);
+        out.writeUTF(doc_metadata[i]);
+      }
+
+      out.writeInt(terms.length);
+
+      for (int t = 0; t < terms.length; t++) {
+        out.writeUTF(terms[t]);
+        out.writeInt(posting_offsets[t+1]-posting_offsets[t]);
+      }
+
+      out.write(postings);
+    }
+  }
+
+  // Returns null when the file is missing, unreadable or indexes another library.
+  public static SearchIndex load(File f, File lib_dir) {
+    if (!f.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(f)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+
+      SearchIndex index = new SearchIndex();
+      index.root_path = in.readUTF();
+
+      if (!index.root_path.equals(lib_dir.toPath().toAbsolutePath().normalize().toString())) {
+        return null;
+      }
+
+      int doc_count = in.readInt();
+      index.doc_paths = new String[doc_count];
+      index.doc_sizes = new long[doc_count];
+      index.doc_modified = new long[doc_count];
+      index.doc_metadata = new String[doc_count];
+
+      for (int i = 0; i < doc_count; i++) {
+        index.doc_paths[i] = in.readUTF();
+        index.doc_sizes[i] = in.readLong();
+        index.doc_modified[i] = in.readLong();
+        index.doc_metadata[i] = in.readUTF();
+      }
+
+      int term_count = in.readInt();
+      index.terms = new String[term_count];
+      index.posting_offsets = new int[term_count+1];
+
+      for (int t = 0; t < term_count; t++) {
+        index.terms[t] = in.readUTF();
+        index.posting_offsets[t+1] = index.posting_offsets[t]+in.readInt();
+      }
+
+      index.postings = new byte[index.posting_offsets[term_count]];
+      in.readFully(index.postings);
+      return index;
+    } catch(IOException e) {
+      System.out.println(e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/***************************************************************************************************
+Class Name: SongCache
+***************************************************************************************************/
+
+package library_components;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import music_sheet_components.*;
+
+// Parsed songs keyed by canonical path, size and modification time. Only the index of the cache
+// file is read on load; an entry's data is read from the file when its song is asked for, and
+// songs added since the last save are held in memory until the next one.
+public class SongCache {
+  public static final int MAGIC = 0x4d4d5343; // "MMSC"
+  public static final int VERSION = 5;
+  public static final int HEADER_LENGTH = 12; // magic, version and index length
+
+  private ConcurrentHashMap<String, Entry> entry_map = new ConcurrentHashMap<>();
+  private File cache_file;
+  private RandomAccessFile data_file;
+  private volatile boolean is_modified;
+
+  public SongCache(File cache_file) {
+    this.cache_file = cache_file;
+    is_modified = false;
+  }
+
+  public synchronized void load() {
+    entry_map.clear();
+    closeDataFile();
+
+    if (!cache_file.exists()) {
+      return;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(cache_file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return;
+      }
+
+      // Offsets in the index count from the end of the index.
+      int index_length = in.readInt();
+      long data_start = HEADER_LENGTH+(long) index_length;
+      long file_length = cache_file.length();
+      int entry_count = in.readInt();
+
+      for (int i = 0; i < entry_count; i++) {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long last_modified = in.readLong();
+        long offset = data_start+in.readLong();
+        int length = in.readInt();
+
+        if (length < 0 || offset+length > file_length) {
+          throw new IOException("Song cache entry out of range: "+path);
+        }
+
+        entry_map.put(path, new Entry(size, last_modified, offset, length));
+      }
+    } catch(IOException e) {
+      // A truncated or corrupted cache is discarded and rebuilt.
+      System.out.println(e);
+      entry_map.clear();
+    }
+  }
+
+  // Writes the cache to a temporary file that then replaces it, so an interrupted save keeps the
+  // previous cache. Entries held in memory are dropped once they are saved.
+  public synchronized void save() {
+    if (!is_modified) {
+      return;
+    }
+
+    is_modified = false;
+    File tmp_file = new File(cache_file.getPath()+".tmp");
+    ArrayList<Map.Entry<String, Entry>> live_entries = new ArrayList<>();
+
+    for (Map.Entry<String, Entry> me : entry_map.entrySet()) {
+      if (new File(me.getKey()).exists()) {
+        live_entries.add(me);
+      }
+    }
+
+    try {
+      ByteArrayOutputStream index_bytes = new ByteArrayOutputStream();
+      DataOutputStream index = new DataOutputStream(index_bytes);
+      long offset = 0;
+      index.writeInt(live_entries.size());
+
+      for (Map.Entry<String, Entry> me : live_entries) {
+        Entry e = me.getValue();
+        index.writeUTF(me.getKey());
+        index.writeLong(e.size);
+        index.writeLong(e.last_modified);
+        index.writeLong(offset);
+        index.writeInt(e.length);
+        offset += e.length;
+      }
+
+      index.flush();
+      long data_start = HEADER_LENGTH+(long) index_bytes.size();
+      Entry[] saved = new Entry[live_entries.size()];
+
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp_file)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(index_bytes.size());
+        index_bytes.writeTo(out);
+        offset = data_start;
+
+        for (int i = 0; i < saved.length; i++) {
+          Entry e = live_entries.get(i).getValue();
+          out.write(readData(e));
+          saved[i] = new Entry(e.size, e.last_modified, offset, e.length);
+          offset += e.length;
+        }
+      }
+
+      closeDataFile();
+      Files.move(tmp_file.toPath(), cache_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      // Songs put while saving keep their newer entries.
+      for (int i = 0; i < saved.length; i++) {
+        Map.Entry<String, Entry> me = live_entries.get(i);
+        entry_map.replace(me.getKey(), me.getValue(), saved[i]);
+      }
+    } catch(IOException e) {
+      System.out.println(e);
+      is_modified = true;
+      tmp_file.delete();
+    }
+  }
+
+  public Song read(File f) throws InvalidMidiDataException, IOException {
+    Song sg = get(f);
+
+    if (sg == null) {
+      sg = Song.read(f);
+      put(f, sg);
+    }
+
+    return sg;
+  }
+
+  public Song get(File f) {
+    try {
+      String path = f.getCanonicalPath();
+      byte[] data = readData(path, f.length(), f.lastModified());
+      return (data != null) ? decode(data) : null;
+    } catch(IOException | InvalidMidiDataException | RuntimeException e) {
+      // A damaged entry is parsed again from the song.
+      System.out.println(e);
+      return null;
+    }
+  }
+
+  public void put(File f, Song sg) {
+    try {
+      byte[] data = encode(sg);
+      entry_map.put(f.getCanonicalPath(), new Entry(f.length(), f.lastModified(), data));
+      is_modified = true;
+    } catch(IOException e) {
+      System.out.println(e);
+    }
+  }
+
+  // Entries are looked up under the lock, so their offsets always refer to the file in place.
+  private synchronized byte[] readData(String path, long size, long last_modified)
+      throws IOException {
+    Entry e = entry_map.get(path);
+
+    if (e == null || e.size != size || e.last_modified != last_modified) {
+      return null;
+    }
+
+    return readData(e);
+  }
+
+  private synchronized byte[] readData(Entry e) throws IOException {
+    if (e.data != null) {
+      return e.data;
+    }
+
+    if (data_file == null) {
+      data_file = new RandomAccessFile(cache_file, "r");
+    }
+
+    byte[] data = new byte[e.length];
+    data_file.seek(e.offset);
+    data_file.readFully(data);
+    return data;
+  }
+
+  private void closeDataFile() {
+    if (data_file == null) {
+      return;
+    }
+
+    try {
+      data_file.close();
+    } catch(IOException e) {
+      System.out.println(e);
+    }
+
+    data_file = null;
+  }
+
+  private static byte[] encode(Song sg) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    ArrayList<Staff> staff_list = sg.getStaffList();
+
+    out.writeUTF(sg.toString());
+    out.writeInt(sg.getTrackCount());
+    out.writeInt(staff_list.size()-1);
+
+    // The merged staff at index 0 is rebuilt from the track staves when decoding.
+    for (int i = 1; i < staff_list.size(); i++) {
+      Staff s = staff_list.get(i);
+      out.writeInt(s.getNumerator());
+      out.writeInt(s.getDenominator());
+      out.writeInt(s.getPPQ());
+      out.writeFloat(s.getMPQ());
+      out.writeBoolean(s.hasTempo());
+      out.writeBoolean(s.hasTimeSignature());
+      out.writeInt(s.getMetaEventList().size());
+
+      for (MidiEvent e : s.getMetaEventList()) {
+        MetaMessage meta = (MetaMessage) e.getMessage();
+        byte[] data = meta.getData();
+        out.writeLong(e.getTick());
+        out.writeByte(meta.getType());
+        out.writeInt(data.length);
+        out.write(data);
+      }
+
+      out.writeInt(s.size());
+
+      for (int j = 0; j < s.size(); j++) {
+        out.writeLong(s.getChordTick(j));
+        out.writeInt(s.getChordSize(j));
+
+        for (int k = 0; k < s.getChordSize(j); k++) {
+          int n = s.getNoteIndex(j, k);
+          out.writeByte(s.getNoteKey(n));
+          out.writeByte(s.getNoteVelocity(n));
+          out.writeByte(s.getNoteChannel(n));
+          out.writeLong(s.getNoteLength(n));
+        }
+      }
+    }
+
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static Song decode(byte[] data) throws IOException, InvalidMidiDataException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    String title = in.readUTF();
+    int track_count = in.readInt();
+    int staff_count = in.readInt();
+    ArrayList<Staff> track_staff_list = new ArrayList<>();
+
+    for (int i = 0; i < staff_count; i++) {
+      Staff s = new Staff("");
+      int numerator = in.readInt();
+      int denominator = in.readInt();
+      s.setPPQ(in.readInt());
+      float mpq = in.readFloat();
+
+      // Timing the track set itself is kept as its own, so the song only shares the rest.
+      if (in.readBoolean()) {
+        s.setTempo(mpq);
+      } else {
+        s.setMPQ(mpq);
+      }
+
+      if (in.readBoolean()) {
+        s.setTimeSignature(numerator, denominator);
+      } else {
+        s.setNumerator(numerator);
+        s.setDenominator(denominator);
+      }
+
+      int meta_count = in.readInt();
+
+      for (int j = 0; j < meta_count; j++) {
+        long tick = in.readLong();
+        int type = in.readUnsignedByte();
+        byte[] meta_data = new byte[in.readInt()];
+        in.readFully(meta_data);
+        s.addMetaEvent(new MidiEvent(new MetaMessage(type, meta_data, meta_data.length), tick));
+      }
+
+      int chord_count = in.readInt();
+
+      for (int j = 0; j < chord_count; j++) {
+        long tick = in.readLong();
+        int note_count = in.readInt();
+
+        for (int k = 0; k < note_count; k++) {
+          int key = in.readUnsignedByte();
+          int velocity = in.readUnsignedByte();
+          int channel = in.readUnsignedByte();
+          s.addNote(tick, key, velocity, channel, in.readLong());
+        }
+      }
+
+      s.trimToSize();
+      track_staff_list.add(s);
+    }
+
+    return new Song(track_staff_list, track_count, title);
+  }
+
+  private static class Entry {
+    private long size;
+    private long last_modified;
+    private byte[] data; // null once saved
+    private long offset;
+    private int length;
+
+    public Entry(long size, long last_modified, byte[] data) {
+      this.size = size;
+      this.last_modified = last_modified;
+      this.data = data;
+      length = data.length;
+    }
+
+    public Entry(long size, long last_modified, long offset, int length) {
+      this.size = size;
+      this.last_modified = last_modified;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/***************************************************************************************************
+Class Name: TuneCapture
+***************************************************************************************************/
+
+package library_components;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import java.util.Arrays;
+
+// Passes MIDI input on to the next receiver and, while listening, keeps the melody of the last
+// notes played. A matcher thread looks the melody up in the melody index whenever it changes,
+// so the MIDI input thread never waits for a search.
+public class TuneCapture implements Receiver, Runnable {
+  public static final int CAPTURE_NOTES = 12;
+  public static final int MIN_NOTES = MelodyIndex.GRAM+3;
+  public static final int MIN_HITS = 2;
+  public static final long CHORD_NS = 40000000L; // onsets closer than this form one chord
+  public static final long PHRASE_GAP_NS = 3000000000L; // a longer pause starts a new melody
+
+  public interface MatchListener {
+    // Called on the matcher thread with the position of the last note played.
+    public void tuneMatched(MelodyIndex index, MelodyIndex.Match match);
+  }
+
+  private Receiver next;
+  private MatchListener listener;
+  private Thread matcher;
+  private volatile MelodyIndex index;
+  private volatile boolean is_listening;
+  private boolean is_open;
+
+  // The melody is the highest key of each chord played, oldest first.
+  private int[] keys = new int[CAPTURE_NOTES];
+  private int key_count;
+  private long chord_onset;
+  private long version;
+  private long matched_version;
+
+  public TuneCapture(Receiver next, MatchListener listener) {
+    this.next = next;
+    this.listener = listener;
+    is_open = true;
+    matcher = new Thread(this, "Tune Matcher");
+    matcher.setDaemon(true);
+    matcher.start();
+  }
+
+  public void setIndex(MelodyIndex index) {
+    this.index = index;
+  }
+
+  public synchronized void setListening(boolean b) {
+    is_listening = b;
+    key_count = 0;
+  }
+
+  public boolean isListening() {
+    return is_listening;
+  }
+
+  @Override
+  public void send(MidiMessage msg, long time_stamp) {
+    if (next != null) {
+      next.send(msg, time_stamp);
+    }
+
+    if (!is_listening || !(msg instanceof ShortMessage)) {
+      return;
+    }
+
+    ShortMessage sm = (ShortMessage) msg;
+
+    if (sm.getCommand() != ShortMessage.NOTE_ON || sm.getData2() == 0 ||
+        sm.getChannel() == MelodyIndex.PERCUSSION_CHANNEL) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    int key = sm.getData1();
+
+    synchronized (this) {
+      if (key_count > 0 && now-chord_onset < CHORD_NS) {
+        if (key <= keys[key_count-1]) {
+          return;
+        }
+
+        keys[key_count-1] = key;
+      } else {
+        if (key_count > 0 && now-chord_onset > PHRASE_GAP_NS) {
+          key_count = 0;
+        } else if (key_count == CAPTURE_NOTES) {
+          System.arraycopy(keys, 1, keys, 0, CAPTURE_NOTES-1);
+          key_count--;
+        }
+
+        keys[key_count++] = key;
+        chord_onset = now;
+      }
+
+      version++;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public void run() {
+    int last_doc = -1;
+    int last_staff = -1;
+    int last_pos = -1;
+
+    while (true) {
+      int[] query;
+
+      synchronized (this) {
+        while (is_open && (version == matched_version || key_count < MIN_NOTES)) {
+          try {
+            wait();
+          } catch(InterruptedException e) {
+            // Woken by close().
+          }
+        }
+
+        if (!is_open) {
+          return;
+        }
+
+        // Notes arriving during the search are matched together on the next pass.
+        query = Arrays.copyOf(keys, key_count);
+        matched_version = version;
+      }
+
+      MelodyIndex current = index;
+
+      if (current == null) {
+        continue;
+      }
+
+      MelodyIndex.Match[] matches = current.search(query, 1);
+
+      if (matches.length == 0 || matches[0].getHits() < MIN_HITS) {
+        continue;
+      }
+
+      MelodyIndex.Match m = matches[0];
+      MelodyIndex.Match last = new MelodyIndex.Match(m.getDoc(), m.getStaff(),
+          m.getPosition()+query.length-1, m.getHits());
+
+      if (last.getDoc() != last_doc || last.getStaff() != last_staff ||
+          last.getPosition() != last_pos) {
+        last_doc = last.getDoc();
+        last_staff = last.getStaff();
+        last_pos = last.getPosition();
+        listener.tuneMatched(current, last);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      is_open = false;
+      notifyAll();
+    }
+
+    matcher.interrupt();
+  }
+}
@@ -0,0 +1,165 @@
+/***************************************************************************************************
+Class Name: Audition
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+public class Audition implements Runnable {
+  public static final int INITIAL_CAPACITY = 32;
+
+  private static Audition audition;
+
+  private MidiDevice device;
+  private Receiver rcv;
+  private Thread scheduler;
+  private volatile boolean is_open;
+
+  // Pending events in time order; each message is packed as status | data1 << 8 | data2 << 16.
+  private long[] event_times = new long[INITIAL_CAPACITY];
+  private int[] event_msgs = new int[INITIAL_CAPACITY];
+  private int event_count;
+  private int next_event;
+  private boolean is_ready;
+  private long base_time;
+
+  public static synchronized void open(MidiDevice device) throws MidiUnavailableException {
+    close();
+    audition = new Audition(device);
+  }
+
+  public static synchronized void close() {
+    if (audition != null) {
+      audition.shutdown();
+      audition = null;
+    }
+  }
+
+  public static synchronized Audition get() {
+    return audition;
+  }
+
+  private Audition(MidiDevice device) throws MidiUnavailableException {
+    this.device = device;
+    rcv = device.getReceiver();
+    is_open = true;
+    scheduler = new Thread(this, "Audition Scheduler");
+    scheduler.setDaemon(true);
+    scheduler.setPriority(Thread.MAX_PRIORITY);
+    scheduler.start();
+  }
+
+  private void shutdown() {
+    synchronized (this) {
+      cancel();
+      is_open = false;
+    }
+
+    scheduler.interrupt();
+    rcv.close();
+  }
+
+  public synchronized void begin() {
+    // A new audition cuts the previous one short, like stopping the sequencer did.
+    cancel();
+    event_count = 0;
+    next_event = 0;
+    is_ready = false;
+  }
+
+  public synchronized void addNote(int channel, int key, int velocity, long start_us, long stop_us) {
+    if (event_count+2 > event_times.length) {
+      event_times = Arrays.copyOf(event_times, event_times.length*2);
+      event_msgs = Arrays.copyOf(event_msgs, event_msgs.length*2);
+    }
+
+    // Times are written ones; like the sequencer, auditions follow the practice speed.
+    addEvent((long)(start_us*1000/Staff.tempo_factor),
+        (Note.NOTE_ON | channel) | (key << 8) | (velocity << 16));
+    addEvent((long)(stop_us*1000/Staff.tempo_factor), (Note.NOTE_OFF | channel) | (key << 8));
+  }
+
+  private void addEvent(long time, int msg) {
+    // Insert after events with an equal time so each note's on precedes its off.
+    int i = event_count;
+
+    while (i > 0 && event_times[i-1] > time) {
+      event_times[i] = event_times[i-1];
+      event_msgs[i] = event_msgs[i-1];
+      i--;
+    }
+
+    event_times[i] = time;
+    event_msgs[i] = msg;
+    event_count++;
+  }
+
+  public void start() {
+    synchronized (this) {
+      base_time = System.nanoTime();
+      is_ready = true;
+    }
+
+    LockSupport.unpark(scheduler);
+  }
+
+  private void cancel() {
+    // Release notes that are sounding; notes not yet started are dropped with their note offs.
+    if (!is_ready) {
+      return;
+    }
+
+    for (int i = next_event; i < event_count; i++) {
+      if ((event_msgs[i] & 0xf0) == Note.NOTE_OFF) {
+        send(event_msgs[i]);
+      }
+    }
+
+    next_event = event_count;
+  }
+
+  @Override
+  public void run() {
+    while (is_open) {
+      int msg = 0;
+      long wait = -1;
+
+      synchronized (this) {
+        if (is_ready && next_event < event_count) {
+          long delay = base_time+event_times[next_event]-System.nanoTime();
+
+          if (delay <= 0) {
+            msg = event_msgs[next_event++];
+          } else {
+            wait = delay;
+          }
+        }
+      }
+
+      if (msg != 0) {
+        send(msg);
+      } else if (wait > 0) {
+        LockSupport.parkNanos(this, wait);
+      } else {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  private void send(int msg) {
+    try {
+      ShortMessage sm = new ShortMessage(msg & 0xff, (msg >> 8) & 0xff, (msg >> 16) & 0xff);
+      rcv.send(sm, device.getMicrosecondPosition());
+    } catch(InvalidMidiDataException | IllegalStateException e) {
+      System.out.println(e);
+    }
+  }
+}
@@ -12,11 +12,9 @@ import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.InvalidMidiDataException;
 
-import javax.swing.DefaultListModel;
+import javax.swing.AbstractListModel;
+import javax.swing.ListModel;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Collections;
 import java.util.Properties;
 
 public class Chord {
@@ -26,13 +24,11 @@ public class Chord {
   public static int chord_offset;
   public static int offset_buffer;
 
-  private static float qpb; // quarter notes per beat
-  private static int bpm; // beats per measure
-  private static int ppq; // pulses/ticks per quarter note
-  private static float mpq; // microseconds per quarter note
-
-  private DefaultListModel<Note> chord_model = new DefaultListModel<>();
-  private long tick;
+  // A chord is a view of one position of its staff; notes, time signature and tempo are read
+  // from the staff.
+  private Staff staff;
+  private int pos;
+  private ListModel<Note> chord_model;
   private int index;
 
   public static void loadConfig(Properties config) {
@@ -45,39 +41,36 @@ public class Chord {
     config.setProperty("Chord.offset_buffer", Integer.toString(offset_buffer));
   }
 
-  public Chord(Note n) {
-    chord_model.addElement(n);
-    tick = n.getTick();
+  Chord(Staff staff, int pos) {
+    this.staff = staff;
+    this.pos = pos;
     index = 0;
   }
 
-  public DefaultListModel<Note> getModel() {
+  public ListModel<Note> getModel() {
+    if (chord_model == null) {
+      chord_model = new AbstractListModel<Note>() {
+        @Override
+        public int getSize() {
+          return Chord.this.size();
+        }
+
+        @Override
+        public Note getElementAt(int i) {
+          return new Note(staff, staff.getNoteIndex(pos, i), getTick());
+        }
+      };
+    }
+
     return chord_model;
   }
 
-  public static void setTimeSignature(int numerator, int denominator, int ppq, float mpq) {
-    Chord.bpm = numerator;
-    Chord.qpb = 4/denominator;
-    Chord.ppq = ppq;
-    Chord.mpq = mpq;
-    Note.setPPQ(ppq);
+  public Staff getStaff() {
+    return staff;
   }
 
-  public void addNote(Note n) {
-    int i;
-
-    for (i = 0; i < this.size(); i++) {
-      Note m = chord_model.get(i);
-
-      if (n.getIndex() > m.getIndex()) {
-        chord_model.add(i, n);
-        break;
-      }
-    }
-
-    if (i == this.size()) {
-      chord_model.addElement(n);
-    }
+  public int getPosition() {
+    return pos;
   }
 
   public Note moveUp() {
@@ -87,7 +80,7 @@ public class Chord {
       index = 0;
     }
 
-    return chord_model.get(index);
+    return getNote(index);
   }
 
   public Note moveDown() {
@@ -97,7 +90,7 @@ public class Chord {
       index = this.size()-1;
     }
 
-    return chord_model.get(index);
+    return getNote(index);
   }
 
   public void resetIndex() {
@@ -109,117 +102,105 @@ public class Chord {
   }
 
   public String[] getNoteNames() {
-    ArrayList<String> note_names = new ArrayList<String>();
-    
-    for (Object o : chord_model.toArray()) {
-      Note n = (Note) o;
-      note_names.add(n.getName());
+    String[] ret_note_names = new String[this.size()];
+
+    for (int i = 0; i < this.size(); i++) {
+      ret_note_names[i] = Note.getKeyName(staff.getNoteKey(staff.getNoteIndex(pos, i)));
     }
 
-    String[] ret_note_names = new String[this.size()];
-    ret_note_names = note_names.toArray(ret_note_names);
     return ret_note_names;
   }
 
   public Note getNote(int i) {
     index = i;
-    return chord_model.get(i);
+    return new Note(staff, staff.getNoteIndex(pos, i), getTick());
   }
 
   public long getTick() {
-    return tick;
+    return staff.getChordTick(pos);
   }
 
   public int size() {
-    return chord_model.size();
+    return staff.getChordSize(pos);
   }
 
   @Override
   public String toString() {
-    long t = tick;
-    int tpb = ppq;
-    int tick_resolution = Integer.toString(tpb).length();
-    String measure = Long.toString((t/tpb)/bpm);
-    String beat = Long.toString((t/ppq)%bpm);
-    long tick = t%tpb;
-    String s = String.format("%-"+tick_resolution+"s", tick).replace(" ", "0");
-    return measure+"M "+beat+"."+s;
-  }
-
-  public static Chord join(Chord c1, Chord c2) {
-    Chord c = c1;
-
-    for (Object o : c2.chord_model.toArray()) {
-      Note n = (Note) o;
-      c.addNote(n);
-    }
-
-    return c;
+    return staff.getPositionLabel(pos);
   }
 
   public void print() {
-    if (chord_model.size() > 1) {
-      System.out.println("chord at tick "+tick+", ("+chord_model.size()+" note(s))");
+    if (this.size() > 1) {
+      System.out.println("chord at tick "+getTick()+", ("+this.size()+" note(s))");
     }
 
-    for (Object o : chord_model.toArray()) {
-      Note i_note = (Note) o;
-      i_note.print();
+    for (int i = 0; i < this.size(); i++) {
+      new Note(staff, staff.getNoteIndex(pos, i), getTick()).print();
     }
   }
 
   public void play(Sequencer seqr, int mode) {
-    if (seqr == null) {
+    Audition audition = Audition.get();
+
+    if (seqr == null && audition == null) {
       return;
     }
 
     try {
-      Sequence seq = new Sequence(Sequence.PPQ, ppq);
-      Track tr = seq.createTrack();
-      Note n;
+      Preview preview = Preview.get();
+      int ppq = staff.getPPQ();
+      float mpq = staff.getMPQ();
       long start = 0;
       long stop = 0;
       long offset_in_ticks = 0;
-      ShortMessage start_msg;
 
       if (mode == OFFSET) {
         offset_in_ticks = (long)(ppq*chord_offset*1000/mpq);
       }
 
+      // Send straight to the output device when it is open, falling back to the sequencer.
+      if (audition != null) {
+        if (seqr != null && seqr.isRunning()) {
+          seqr.stop();
+        }
+
+        if (Player.get() != null) {
+          Player.get().stop();
+        }
+
+        audition.begin();
+      } else {
+        preview.begin(ppq);
+      }
+
       int i = 0;
 
       for (int j = this.size()-1; j >= 0; j--) {
-        n = chord_model.get(j);
+        int n = staff.getNoteIndex(pos, j);
         start = i*offset_in_ticks;
 
         if (mode == SYNCHRONIZED) {
-        stop = start+n.length();
-      } else if (mode == OFFSET) {
-        stop = start+(j+1)*offset_in_ticks;
-      }
-
-        start_msg = new ShortMessage(n.start().getStatus(),
-            n.getIndex(), Note.review_velocity);
+          stop = start+Math.max(staff.getNoteLength(n), 0);
+        } else if (mode == OFFSET) {
+          stop = start+(j+1)*offset_in_ticks;
+        }
+
+        if (audition != null) {
+          audition.addNote(staff.getNoteChannel(n), staff.getNoteKey(n), Note.review_velocity,
+              staff.ticksToMicroseconds(start), staff.ticksToMicroseconds(stop));
+        } else {
+          preview.addNote(staff.getNoteChannel(n), staff.getNoteKey(n), Note.review_velocity,
+              start, stop);
+        }
 
-        MidiEvent start_e = new MidiEvent(start_msg, start);
-        MidiEvent stop_e = new MidiEvent(n.stop(), stop);
-        tr.add(start_e);
-        tr.add(stop_e);
         i++;
       }
 
-      if (seqr.isRunning()) {
-        seqr.stop();
-      }
-
-      seqr.setSequence(seq);
-
-      if (mpq != 0) {
-        seqr.setTempoInMPQ(mpq);
+      if (audition != null) {
+        audition.start();
+      } else {
+        preview.play(seqr, mpq);
       }
-
-      seqr.setLoopCount(0);
-      seqr.start();
     } catch(InvalidMidiDataException e) {
       System.out.println(e.toString());
     }
@@ -0,0 +1,207 @@
+/***************************************************************************************************
+Class Name: MidiFileReader
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+
+public class MidiFileReader {
+  public static final int MTHD = 0x4d546864; // "MThd"
+  public static final int MTRK = 0x4d54726b; // "MTrk"
+  public static final int META = 0xff;
+  public static final int SYSEX = 0xf0;
+  public static final int SYSEX_END = 0xf7;
+  public static final int MIDI_END_OF_TRACK = 0x2f;
+  public static final long MAP_THRESHOLD = 1 << 20; // smaller files are read onto the heap
+
+  private ByteBuffer buffer;
+  private int track_count;
+  private int division;
+
+  public MidiFileReader(File f) throws InvalidMidiDataException, IOException {
+    // Opened from the File itself, as its name may not convert to a Path in every locale.
+    try (FileInputStream in = new FileInputStream(f)) {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+
+      if (size > Integer.MAX_VALUE) {
+        throw new InvalidMidiDataException("MIDI file too large: "+f.getName());
+      }
+
+      // A single read is cheaper than a mapping for most songs, and holds no file lock once the
+      // file is closed. A mapping is only released when collected.
+      if (size > MAP_THRESHOLD) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      } else {
+        buffer = ByteBuffer.allocate((int) size);
+
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+
+        buffer.flip();
+      }
+    }
+
+    try {
+      if (buffer.getInt() != MTHD) {
+        throw new InvalidMidiDataException("Not a standard MIDI file: "+f.getName());
+      }
+
+      int header_length = buffer.getInt();
+      int header_start = buffer.position();
+      buffer.getShort(); // format
+      track_count = buffer.getShort() & 0xffff;
+      division = buffer.getShort() & 0xffff;
+      buffer.position(header_start+header_length);
+    } catch(BufferUnderflowException | IllegalArgumentException e) {
+      throw new InvalidMidiDataException("Truncated MIDI file header: "+f.getName());
+    }
+  }
+
+  public int getTrackCount() {
+    return track_count;
+  }
+
+  public boolean isPPQ() {
+    return (division & 0x8000) == 0;
+  }
+
+  public int getResolution() {
+    return isPPQ() ? division : Staff.default_ppq;
+  }
+
+  public ArrayList<Staff> readStaves() throws InvalidMidiDataException {
+    ArrayList<Staff> staff_list = new ArrayList<>();
+    int tracks_read = 0;
+
+    try {
+      while (tracks_read < track_count && buffer.remaining() >= 8) {
+        int chunk_type = buffer.getInt();
+        int chunk_length = buffer.getInt();
+        int chunk_end = buffer.position()+chunk_length;
+
+        // Unknown chunks are skipped as the MIDI file specification requires.
+        if (chunk_type == MTRK) {
+          Staff s = readTrack(chunk_end);
+
+          if (s.size() > 0) {
+            staff_list.add(s);
+          }
+
+          tracks_read++;
+        }
+
+        buffer.position(Math.min(chunk_end, buffer.limit()));
+      }
+    } catch(BufferUnderflowException | IllegalArgumentException e) {
+      throw new InvalidMidiDataException("Truncated MIDI track.");
+    }
+
+    track_count = tracks_read;
+    return staff_list;
+  }
+
+  private Staff readTrack(int chunk_end) throws InvalidMidiDataException {
+    Staff s = new Staff();
+    long tick = 0;
+    int running_status = -1;
+    boolean has_end_of_track = false;
+    chunk_end = Math.min(chunk_end, buffer.limit());
+
+    while (buffer.position() < chunk_end) {
+      tick += readVariableLength();
+      int status = buffer.get() & 0xff;
+      int data1;
+
+      if (status < 0x80) {
+        // Running status: the byte just read is the first data byte.
+        if (running_status == -1) {
+          throw new InvalidMidiDataException("Running status without a preceding status byte.");
+        }
+
+        data1 = status;
+        status = running_status;
+      } else if (status < SYSEX) {
+        running_status = status;
+        data1 = buffer.get() & 0xff;
+      } else if (status == META) {
+        int type = buffer.get() & 0xff;
+        byte[] data = new byte[readDataLength()];
+        buffer.get(data);
+
+        if (type == MIDI_END_OF_TRACK) {
+          has_end_of_track = true;
+        }
+
+        s.insertMeta(new MidiEvent(new MetaMessage(type, data, data.length), tick));
+        continue;
+      } else if (status == SYSEX || status == SYSEX_END) {
+        int length = readDataLength();
+        buffer.position(buffer.position()+length);
+        continue;
+      } else {
+        throw new InvalidMidiDataException("Invalid status byte in track: "+status);
+      }
+
+      int cmd = status & 0xf0;
+
+      // Program change and channel pressure carry a single data byte.
+      if (cmd == ShortMessage.PROGRAM_CHANGE || cmd == ShortMessage.CHANNEL_PRESSURE) {
+        continue;
+      }
+
+      int data2 = buffer.get() & 0xff;
+
+      if (cmd == Note.NOTE_ON || cmd == Note.NOTE_OFF) {
+        if (data1 > 0x7f || data2 > 0x7f) {
+          throw new InvalidMidiDataException("Invalid note data in track.");
+        }
+
+        s.insertMsg(tick, cmd, status & 0x0f, data1, data2);
+      }
+    }
+
+    if (!has_end_of_track) {
+      s.insertMeta(new MidiEvent(new MetaMessage(MIDI_END_OF_TRACK, new byte[0], 0), tick));
+    }
+
+    s.endTrack();
+    return s;
+  }
+
+  // The length of a meta or system exclusive event, which must fit in what is left of the file.
+  private int readDataLength() throws InvalidMidiDataException {
+    long length = readVariableLength();
+
+    if (length > buffer.remaining()) {
+      throw new InvalidMidiDataException("Event data runs past the end of the file.");
+    }
+
+    return (int) length;
+  }
+
+  private long readVariableLength() {
+    long value = 0;
+    int b;
+
+    do {
+      b = buffer.get() & 0xff;
+      value = (value << 7) | (b & 0x7f);
+    } while ((b & 0x80) != 0);
+
+    return value;
+  }
+}
@@ -23,15 +23,11 @@ public class Note {
     {"C", "C sharp ", "D", "D sharp ", "E", "F", "F sharp ", "G", "G sharp ", "A", "A sharp ", "B"};
 
   public static int review_velocity;
-  public static int ppq; // pulses (ticks) per quarter note.
 
-  private ShortMessage start;
-  private ShortMessage stop;
-  private String name;
-  private int index;
-  private int velocity;
+  // A note is a view of one entry in its staff's note columns.
+  private Staff staff;
+  private int n;
   private long tick;
-  private long length;
 
   public static void loadConfig(Properties config) {
     review_velocity = Integer.parseInt(config.getProperty("Note.review_velocity", "80"));
@@ -41,40 +37,22 @@ public class Note {
     config.setProperty("Note.review_velocity", Integer.toString(review_velocity));
   }
 
-  public Note(ShortMessage sm) {
-    start = sm;
-    name = getMsgNoteName(sm);
-    index = sm.getData1();
-    velocity = sm.getData2();
-    tick = -1;
-    length = -1;
-  }
-
-  public Note(long t, ShortMessage sm) {
-    this(sm);
-    tick = t;
-  }
-
-  public Note(long t, long l, ShortMessage start, ShortMessage stop) {
-    this(t, start);
-    this.terminate(t+l, stop);
-  }
-
-  public void terminate(long t, ShortMessage sm) {
-    stop = sm;
-    length = t-tick;
+  Note(Staff staff, int n, long tick) {
+    this.staff = staff;
+    this.n = n;
+    this.tick = tick;
   }
 
   public boolean isTerminated() {
-    return (length != -1);
+    return (this.length() != -1);
   }
 
   public String getName() {
-    return name;
+    return getKeyName(this.getIndex());
   }
 
   public String toString() {
-    return "Note "+name+"; length: "+length+"; velocity: "+velocity;
+    return "Note "+getName()+"; length: "+length()+"; velocity: "+getVelocity();
   }
 
   public void print() {
@@ -82,7 +60,15 @@ public class Note {
   }
 
   public int getIndex() {
-    return index;
+    return staff.getNoteKey(n);
+  }
+
+  public int getVelocity() {
+    return staff.getNoteVelocity(n);
+  }
+
+  public int getChannel() {
+    return staff.getNoteChannel(n);
   }
 
   public long getTick() {
@@ -90,53 +76,70 @@ public class Note {
   }
 
   public long length() {
-    return length;
+    return staff.getNoteLength(n);
   }
 
   public ShortMessage start() {
-    return start;
+    try {
+      return new ShortMessage(NOTE_ON, getChannel(), getIndex(), getVelocity());
+    } catch(InvalidMidiDataException e) {
+      System.out.println(e.toString());
+      return null;
+    }
   }
 
   public ShortMessage stop() {
-    return stop;
+    if (!this.isTerminated()) {
+      return null;
+    }
+
+    try {
+      return new ShortMessage(NOTE_OFF, getChannel(), getIndex(), 0);
+    } catch(InvalidMidiDataException e) {
+      System.out.println(e.toString());
+      return null;
+    }
   }
 
   public static String getMsgNoteName(ShortMessage msg) {
-    int key = msg.getData1();
+    return getKeyName(msg.getData1());
+  }
+
+  public static String getKeyName(int key) {
     int oct = (key/12)-1;
     int n = key%12;
     String s = NOTE_NAMES[n];
     return s+oct;
   }
 
-  public static void setPPQ(int p) {
-    ppq = p;
-  }
-
   public void play(Sequencer seqr) {
-    if (seqr == null) {
-      return;
-    }
+    Audition audition = Audition.get();
 
-    try {
-      Sequence seq = new Sequence(Sequence.PPQ, ppq);
-      Track tr = seq.createTrack();
-      ShortMessage review_start = new ShortMessage(start.getStatus(), index, review_velocity);
-      MidiEvent e_start = new MidiEvent(review_start, 0);
-      MidiEvent e_stop = new MidiEvent(stop, length);
-      tr.add(e_start);
-      tr.add(e_stop);
-
-      if (seqr.isRunning()) {
+    if (audition != null) {
+      if (seqr != null && seqr.isRunning()) {
         seqr.stop();
       }
 
-      seqr.setSequence(seq);
-      seqr.setLoopCount(0);
-      seqr.start();
+      if (Player.get() != null) {
+        Player.get().stop();
+      }
+
+      audition.begin();
+      audition.addNote(getChannel(), getIndex(), review_velocity, 0,
+          staff.ticksToMicroseconds(Math.max(length(), 0)));
+      audition.start();
+      return;
+    } else if (seqr == null) {
+      return;
+    }
+
+    try {
+      Preview preview = Preview.get();
+      preview.begin(staff.getPPQ());
+      preview.addNote(getChannel(), getIndex(), review_velocity, 0, Math.max(length(), 0));
+      preview.play(seqr, 0);
     } catch(InvalidMidiDataException e) {
       System.out.println(e.toString());
     }
   }
 }
-  
\ No newline at end of file
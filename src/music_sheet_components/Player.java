@@ -0,0 +1,410 @@
+/***************************************************************************************************
+Class Name: Player
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class Player implements Runnable {
+  public static final long LOOKAHEAD_NS = 2000000000L; // events generated ahead of the clock
+  public static final long REFILL_NS = LOOKAHEAD_NS/4;
+  public static final int INITIAL_CAPACITY = 256;
+
+  private static Player player;
+
+  private MidiDevice device;
+  private Receiver rcv;
+  private Thread streamer;
+  private volatile boolean is_open;
+
+  // Playback session. The position word holds the session count in its high half and
+  // the chord last started in its low half, so readers never take the player's lock.
+  private volatile Staff staff;
+  private int start_pos;
+  private int stop_pos;
+  private int mode;
+  private int loops_left;
+  private volatile boolean is_running;
+  private int session;
+  private final AtomicLong position = new AtomicLong();
+
+  // Event generator state. Ticks are counted from the start of the session, across loops.
+  private int gen_pos;
+  private long gen_start;
+  private long gen_loop_base;
+  private long gen_loop_end;
+  private long gen_frontier;
+  private boolean gen_done;
+  private long offset_in_ticks;
+  private long buffer_in_ticks;
+
+  // Clock mapping session ticks to System.nanoTime().
+  private long anchor_ns;
+  private double anchor_tick;
+  private double ns_per_tick;
+  private double tick_ns; // ns_per_tick at the written tempo
+  private float tempo_factor = 1;
+
+  // Window of generated events in tick order. Messages are packed as
+  // status | data1 << 8 | data2 << 16; negative values mark the start of chord -(msg+1).
+  private long[] win_ticks = new long[INITIAL_CAPACITY];
+  private int[] win_msgs = new int[INITIAL_CAPACITY];
+  private int win_head;
+  private int win_count;
+
+  // Min-heap of note offs not yet due to enter the window.
+  private long[] off_ticks = new long[INITIAL_CAPACITY];
+  private int[] off_msgs = new int[INITIAL_CAPACITY];
+  private int off_count;
+
+  public static synchronized void open(MidiDevice device) throws MidiUnavailableException {
+    close();
+    player = new Player(device);
+  }
+
+  public static synchronized void close() {
+    if (player != null) {
+      player.shutdown();
+      player = null;
+    }
+  }
+
+  public static synchronized Player get() {
+    return player;
+  }
+
+  private Player(MidiDevice device) throws MidiUnavailableException {
+    this.device = device;
+    rcv = device.getReceiver();
+    is_open = true;
+    streamer = new Thread(this, "Staff Player");
+    streamer.setDaemon(true);
+    streamer.setPriority(Thread.MAX_PRIORITY);
+    streamer.start();
+  }
+
+  private void shutdown() {
+    synchronized (this) {
+      stop();
+      is_open = false;
+    }
+
+    streamer.interrupt();
+    rcv.close();
+  }
+
+  public void play(Staff staff, int start_pos, int stop_pos, int mode, int loops) {
+    synchronized (this) {
+      stop();
+      this.staff = staff;
+      this.start_pos = start_pos;
+      this.stop_pos = stop_pos;
+      this.mode = mode;
+      loops_left = loops;
+      session++;
+      setPosition(start_pos);
+
+      float mpq = staff.getMPQ();
+      int ppq = staff.getPPQ();
+      offset_in_ticks = 0;
+      buffer_in_ticks = (long)(ppq*Chord.offset_buffer*1000/mpq);
+
+      if (mode == Chord.OFFSET) {
+        offset_in_ticks = (long)(ppq*Chord.chord_offset*1000/mpq);
+      }
+
+      gen_pos = start_pos;
+      gen_start = 0;
+      gen_loop_base = 0;
+      gen_loop_end = 0;
+      gen_frontier = 0;
+      gen_done = false;
+      win_head = 0;
+      win_count = 0;
+      off_count = 0;
+
+      tempo_factor = Staff.tempo_factor;
+      tick_ns = mpq*1000.0/ppq;
+      ns_per_tick = tick_ns/tempo_factor;
+      anchor_tick = 0;
+      anchor_ns = System.nanoTime();
+      is_running = true;
+    }
+
+    LockSupport.unpark(streamer);
+  }
+
+  public synchronized int stop() {
+    if (is_running) {
+      // Release sounding notes; offs for notes not yet started are harmless.
+      for (int i = 0; i < win_count; i++) {
+        int msg = win_msgs[(win_head+i) % win_msgs.length];
+
+        if (msg >= 0 && (msg & 0xf0) == Note.NOTE_OFF) {
+          send(msg);
+        }
+      }
+
+      for (int i = 0; i < off_count; i++) {
+        send(off_msgs[i]);
+      }
+
+      win_count = 0;
+      off_count = 0;
+      is_running = false;
+    }
+
+    return getPosition();
+  }
+
+  private void setPosition(int pos) {
+    position.set((long) session << 32 | pos);
+  }
+
+  // Rescales the clock from the current tick on, so no events are generated again.
+  public void setTempoFactor(float factor) {
+    synchronized (this) {
+      if (is_running) {
+        long now = System.nanoTime();
+        anchor_tick = tickAt(now);
+        anchor_ns = now;
+        ns_per_tick = tick_ns/factor;
+      }
+
+      tempo_factor = factor;
+    }
+
+    LockSupport.unpark(streamer);
+  }
+
+  public synchronized float getTempoFactor() {
+    return tempo_factor;
+  }
+
+  public Staff getStaff() {
+    return staff;
+  }
+
+  public int getPosition() {
+    return (int) position.get();
+  }
+
+  public long getPositionWord() {
+    return position.get();
+  }
+
+  public boolean isRunning() {
+    return is_running;
+  }
+
+  private double tickAt(long ns) {
+    return anchor_tick+(ns-anchor_ns)/ns_per_tick;
+  }
+
+  private long timeOf(long tick) {
+    return anchor_ns+(long)((tick-anchor_tick)*ns_per_tick);
+  }
+
+  @Override
+  public void run() {
+    while (is_open) {
+      long wait = REFILL_NS;
+      boolean is_idle;
+
+      synchronized (this) {
+        if (is_running) {
+          long now = System.nanoTime();
+          double clock = tickAt(now);
+
+          // Keep the window filled LOOKAHEAD_NS ahead of the clock, then send what is due.
+          while (!gen_done && gen_frontier <= clock+LOOKAHEAD_NS/ns_per_tick) {
+            generateChord();
+          }
+
+          while (win_count > 0 && win_ticks[win_head] <= clock) {
+            int msg = win_msgs[win_head];
+            win_head = (win_head+1) % win_msgs.length;
+            win_count--;
+
+            if (msg < 0) {
+              setPosition(-(msg+1));
+            } else {
+              send(msg);
+            }
+          }
+
+          // The next event may be due less than a nanosecond away, or already be late.
+          if (win_count > 0) {
+            wait = Math.max(1, Math.min(timeOf(win_ticks[win_head])-now, REFILL_NS));
+          } else if (gen_done) {
+            is_running = false;
+          }
+        }
+
+        is_idle = !is_running;
+      }
+
+      // Only a stopped player waits to be woken.
+      if (is_idle) {
+        LockSupport.park(this);
+      } else {
+        LockSupport.parkNanos(this, wait);
+      }
+    }
+  }
+
+  private void generateChord() {
+    int i = gen_pos;
+    long start = gen_start;
+    long stop = start;
+
+    pushWindow(gen_loop_base+start+offset_in_ticks, -(i+1));
+
+    for (int j = staff.getChordSize(i)-1; j >= 0; j--) {
+      int n = staff.getNoteIndex(i, j);
+      int channel = staff.getNoteChannel(n);
+      int key = staff.getNoteKey(n);
+      int vel = staff.getNoteVelocity(n);
+      start += offset_in_ticks;
+
+      if (mode == Chord.SYNCHRONIZED) {
+        stop = start+Math.max(staff.getNoteLength(n), 0);
+      } else if (mode == Chord.OFFSET) {
+        stop = start+(j+1)*offset_in_ticks;
+        vel = Note.review_velocity;
+      }
+
+      pushWindow(gen_loop_base+start, (Note.NOTE_ON | channel) | (key << 8) | (vel << 16));
+      pushOff(gen_loop_base+stop, (Note.NOTE_OFF | channel) | (key << 8));
+      gen_loop_end = Math.max(gen_loop_end, stop);
+    }
+
+    if (i < stop_pos) {
+      if (mode == Chord.SYNCHRONIZED) {
+        start += staff.getChordTick(i+1)-staff.getChordTick(i);
+      } else if (mode == Chord.OFFSET) {
+        start += buffer_in_ticks;
+      }
+
+      gen_pos++;
+      gen_start = start;
+      gen_frontier = gen_loop_base+start;
+      drainOffs(gen_frontier);
+      return;
+    }
+
+    // A silent pause 1.5 times the offset buffer marks the start of the next loop.
+    gen_loop_end = Math.max(gen_loop_end, stop+buffer_in_ticks*3/2);
+    drainOffs(Long.MAX_VALUE);
+    gen_frontier = gen_loop_base+gen_loop_end;
+
+    // Fewer than one loop repeats until stopped, as with the sequencer's loop count.
+    if (loops_left != 1) {
+      loops_left = Math.max(loops_left-1, 0);
+      gen_loop_base += gen_loop_end;
+      gen_loop_end = 0;
+      gen_pos = start_pos;
+      gen_start = 0;
+    } else {
+      gen_done = true;
+    }
+  }
+
+  private void drainOffs(long tick) {
+    while (off_count > 0 && off_ticks[0] <= tick) {
+      pushWindow(off_ticks[0], off_msgs[0]);
+      off_count--;
+      off_ticks[0] = off_ticks[off_count];
+      off_msgs[0] = off_msgs[off_count];
+      int i = 0;
+
+      while (true) {
+        int c = 2*i+1;
+
+        if (c >= off_count) {
+          break;
+        }
+
+        if (c+1 < off_count && off_ticks[c+1] < off_ticks[c]) {
+          c++;
+        }
+
+        if (off_ticks[i] <= off_ticks[c]) {
+          break;
+        }
+
+        swapOffs(i, c);
+        i = c;
+      }
+    }
+  }
+
+  private void pushOff(long tick, int msg) {
+    if (off_count == off_ticks.length) {
+      off_ticks = Arrays.copyOf(off_ticks, off_count*2);
+      off_msgs = Arrays.copyOf(off_msgs, off_count*2);
+    }
+
+    int i = off_count++;
+    off_ticks[i] = tick;
+    off_msgs[i] = msg;
+
+    while (i > 0 && off_ticks[(i-1)/2] > off_ticks[i]) {
+      swapOffs(i, (i-1)/2);
+      i = (i-1)/2;
+    }
+  }
+
+  private void swapOffs(int i, int j) {
+    long t = off_ticks[i];
+    off_ticks[i] = off_ticks[j];
+    off_ticks[j] = t;
+    int m = off_msgs[i];
+    off_msgs[i] = off_msgs[j];
+    off_msgs[j] = m;
+  }
+
+  private void pushWindow(long tick, int msg) {
+    // Offs due no later than this event go first, as they did in the sequencer's track.
+    if (msg < 0 || (msg & 0xf0) == Note.NOTE_ON) {
+      drainOffs(tick);
+    }
+
+    if (win_count == win_msgs.length) {
+      long[] ticks = new long[win_count*2];
+      int[] msgs = new int[win_count*2];
+
+      for (int i = 0; i < win_count; i++) {
+        ticks[i] = win_ticks[(win_head+i) % win_ticks.length];
+        msgs[i] = win_msgs[(win_head+i) % win_msgs.length];
+      }
+
+      win_ticks = ticks;
+      win_msgs = msgs;
+      win_head = 0;
+    }
+
+    int tail = (win_head+win_count) % win_msgs.length;
+    win_ticks[tail] = tick;
+    win_msgs[tail] = msg;
+    win_count++;
+  }
+
+  private void send(int msg) {
+    try {
+      ShortMessage sm = new ShortMessage(msg & 0xff, (msg >> 8) & 0xff, (msg >> 16) & 0xff);
+      rcv.send(sm, device.getMicrosecondPosition());
+    } catch(InvalidMidiDataException | IllegalStateException e) {
+      System.out.println(e);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/***************************************************************************************************
+Class Name: Preview
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.util.Arrays;
+
+public class Preview {
+  public static final int INITIAL_CAPACITY = 32;
+
+  private static Preview preview = new Preview();
+
+  // The sequence, events and messages are reused by every chord and note preview.
+  private Sequence seq;
+  private Track tr;
+  private MidiEvent[] event_pool = new MidiEvent[0];
+  private int event_count;
+
+  public static Preview get() {
+    return preview;
+  }
+
+  private Preview() {
+    event_count = 0;
+    growPool(INITIAL_CAPACITY);
+  }
+
+  private void growPool(int capacity) {
+    int i = event_pool.length;
+    event_pool = Arrays.copyOf(event_pool, capacity);
+
+    for (; i < capacity; i++) {
+      event_pool[i] = new MidiEvent(new ShortMessage(), 0);
+    }
+  }
+
+  public void begin(int ppq) throws InvalidMidiDataException {
+    if (seq == null || seq.getResolution() != ppq) {
+      seq = new Sequence(Sequence.PPQ, ppq);
+    } else {
+      // A track never moves its end back, so a fresh one keeps a short preview from running on
+      // as long as the longest one played before it.
+      seq.deleteTrack(tr);
+    }
+
+    tr = seq.createTrack();
+
+    event_count = 0;
+  }
+
+  public void addNote(int channel, int key, int velocity, long start, long stop)
+      throws InvalidMidiDataException {
+    if (event_count+2 > event_pool.length) {
+      growPool(event_pool.length*2);
+    }
+
+    addEvent(Note.NOTE_ON, channel, key, velocity, start);
+    addEvent(Note.NOTE_OFF, channel, key, 0, stop);
+  }
+
+  private void addEvent(int cmd, int channel, int key, int velocity, long tick)
+      throws InvalidMidiDataException {
+    MidiEvent e = event_pool[event_count++];
+    ((ShortMessage) e.getMessage()).setMessage(cmd, channel, key, velocity);
+    e.setTick(tick);
+    tr.add(e);
+  }
+
+  public void play(Sequencer seqr, float mpq) throws InvalidMidiDataException {
+    if (seqr.isRunning()) {
+      seqr.stop();
+    }
+
+    // Handing the sequencer the sequence it already holds only refreshes its view of the track.
+    seqr.setSequence(seq);
+    seqr.setTickPosition(0);
+
+    if (mpq != 0) {
+      seqr.setTempoInMPQ(mpq);
+    }
+
+    seqr.setTempoFactor(Staff.tempo_factor);
+
+    seqr.setLoopCount(0);
+    seqr.start();
+  }
+}
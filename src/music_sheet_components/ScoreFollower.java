@@ -0,0 +1,210 @@
+/***************************************************************************************************
+Class Name: ScoreFollower
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import java.util.Arrays;
+
+// Follows a player through a staff. Each note played is looked for in the expected chord and
+// the few after it; the first chord with the key matches once most of its keys are sounding, so
+// wrong notes and skipped chords do not lose the place. Matching runs on the MIDI input thread
+// against the staff columns and allocates nothing.
+public class ScoreFollower implements Receiver {
+  public static final int LOOKAHEAD = 4; // chords past the expected one that may match
+  public static final int MATCH_PERCENT = 75; // share of a chord's keys that must sound
+  public static final long CHORD_US = 100000; // onsets closer than this belong to one chord
+  public static final int PERCUSSION_CHANNEL = 9;
+  public static final int MAX_DEVIATION_MS = Short.MAX_VALUE;
+
+  private Receiver next;
+  private volatile boolean is_enabled;
+
+  private Staff staff;
+  private int expected_pos;
+  private boolean[] held = new boolean[Staff.KEY_COUNT];
+  private long[] press_times = new long[Staff.KEY_COUNT];
+
+  // The chord matched last, with its keys as a bitset.
+  private int matched_pos;
+  private long matched_time;
+  private long matched_low;
+  private long matched_high;
+  private int match_count;
+
+  // Match count, timing deviation and position packed as in getMatchWord(), so readers never
+  // take the follower's lock.
+  private volatile long match_word;
+
+  public ScoreFollower(Receiver next) {
+    this.next = next;
+    Arrays.fill(press_times, Long.MIN_VALUE/2);
+    matched_pos = -1;
+  }
+
+  public void setEnabled(boolean b) {
+    is_enabled = b;
+  }
+
+  public boolean isEnabled() {
+    return is_enabled;
+  }
+
+  public synchronized Staff getStaff() {
+    return staff;
+  }
+
+  // Expects pos to be played next; the timing of the following chord is not judged.
+  public synchronized void setStaff(Staff s, int pos) {
+    staff = s;
+    expected_pos = pos;
+    matched_pos = -1;
+    matched_low = 0;
+    matched_high = 0;
+  }
+
+  // Matches counted in the top 16 bits, the deviation in milliseconds of the last matched
+  // chord from the written timing in the next 16 bits (positive when late) and its position
+  // in the low 32 bits.
+  public long getMatchWord() {
+    return match_word;
+  }
+
+  public static int getMatchPosition(long word) {
+    return (int) word;
+  }
+
+  public static int getMatchDeviation(long word) {
+    return (short)(word >> 32);
+  }
+
+  @Override
+  public void send(MidiMessage msg, long time_stamp) {
+    if (next != null) {
+      next.send(msg, time_stamp);
+    }
+
+    if (!is_enabled || !(msg instanceof ShortMessage)) {
+      return;
+    }
+
+    ShortMessage sm = (ShortMessage) msg;
+    int cmd = sm.getCommand();
+    int key = sm.getData1();
+
+    if (sm.getChannel() == PERCUSSION_CHANNEL) {
+      return;
+    }
+
+    // Device time stamps are in microseconds; without one, the arrival time is used.
+    long time = (time_stamp != -1) ? time_stamp : System.nanoTime()/1000;
+
+    synchronized (this) {
+      if (cmd == ShortMessage.NOTE_OFF || (cmd == ShortMessage.NOTE_ON && sm.getData2() == 0)) {
+        held[key] = false;
+      } else if (cmd == ShortMessage.NOTE_ON) {
+        held[key] = true;
+        press_times[key] = time;
+        noteOn(key, time);
+      }
+    }
+  }
+
+  private void noteOn(int key, long time) {
+    if (staff == null) {
+      return;
+    }
+
+    // The rest of a chord that has already matched.
+    if (time-matched_time < CHORD_US && hasKey(matched_low, matched_high, key)) {
+      return;
+    }
+
+    long sounding_low = 0;
+    long sounding_high = 0;
+
+    for (int k = 0; k < Staff.KEY_COUNT; k++) {
+      if (held[k] || time-press_times[k] < CHORD_US) {
+        if (k < 64) {
+          sounding_low |= 1L << k;
+        } else {
+          sounding_high |= 1L << (k-64);
+        }
+      }
+    }
+
+    int last = Math.min(staff.size()-1, expected_pos+LOOKAHEAD);
+
+    for (int pos = expected_pos; pos <= last; pos++) {
+      long chord_low = 0;
+      long chord_high = 0;
+
+      for (int i = 0; i < staff.getChordSize(pos); i++) {
+        int n = staff.getNoteIndex(pos, i);
+
+        if (staff.getNoteChannel(n) == PERCUSSION_CHANNEL) {
+          continue;
+        }
+
+        int k = staff.getNoteKey(n);
+
+        if (k < 64) {
+          chord_low |= 1L << k;
+        } else {
+          chord_high |= 1L << (k-64);
+        }
+      }
+
+      if (!hasKey(chord_low, chord_high, key)) {
+        continue;
+      }
+
+      int size = Long.bitCount(chord_low)+Long.bitCount(chord_high);
+      int sounding = Long.bitCount(chord_low & sounding_low)+
+          Long.bitCount(chord_high & sounding_high);
+
+      // The first chord with the key holds the place until enough of it sounds, so the start
+      // of a chord never matches a later chord sharing that key.
+      if (sounding*100 >= size*MATCH_PERCENT) {
+        match(pos, time, chord_low, chord_high);
+      }
+
+      return;
+    }
+  }
+
+  private void match(int pos, long time, long chord_low, long chord_high) {
+    long deviation = 0;
+
+    // Compare the time since the last matched chord with the written time between them, at
+    // the practice speed.
+    if (matched_pos >= 0 && pos > matched_pos) {
+      long written = staff.ticksToMicroseconds(
+          staff.getChordTick(pos)-staff.getChordTick(matched_pos));
+      deviation = (time-matched_time-(long)(written/Staff.tempo_factor))/1000;
+      deviation = Math.max(-MAX_DEVIATION_MS, Math.min(MAX_DEVIATION_MS, deviation));
+    }
+
+    matched_pos = pos;
+    matched_time = time;
+    matched_low = chord_low;
+    matched_high = chord_high;
+    expected_pos = pos+1;
+    match_count++;
+    match_word = ((long)(match_count & 0xffff) << 48) | ((deviation & 0xffff) << 32) |
+        (pos & 0xffffffffL);
+  }
+
+  private static boolean hasKey(long low, long high, int key) {
+    return (key < 64) ? (low & (1L << key)) != 0 : (high & (1L << (key-64))) != 0;
+  }
+
+  @Override
+  public void close() {
+    is_enabled = false;
+  }
+}
@@ -0,0 +1,180 @@
+/***************************************************************************************************
+Class Name: Song
+***************************************************************************************************/
+
+package music_sheet_components;
+
+import javax.sound.midi.Track;
+import javax.sound.midi.InvalidMidiDataException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import java.io.File;
+import java.io.IOException;
+
+public class Song {
+  private ArrayList<Staff> staff_list = new ArrayList<>();
+  private ArrayList<Integer> numerator = new ArrayList<>();
+  private ArrayList<Integer> denominator = new ArrayList<>();
+  private ArrayList<Integer> ppq = new ArrayList<>();
+  private ArrayList<Float> mpq = new ArrayList<>();;
+  String description = "";
+  private int track_count;
+
+  public Song(Track[] track_list, String song_title) {
+    ArrayList<Staff> track_staff_list = new ArrayList<>();
+
+    for (Track t : track_list) {
+      Staff s = new Staff(t);
+
+      if (s.size() > 0) {
+        track_staff_list.add(s);
+      }
+    }
+
+    init(track_staff_list, track_list.length, song_title);
+  }
+
+  public Song(ArrayList<Staff> track_staff_list, int track_count, String song_title) {
+    init(track_staff_list, track_count, song_title);
+  }
+
+  private void init(ArrayList<Staff> track_staff_list, int track_count, String song_title) {
+    this.track_count = track_count;
+    Staff merged_staff = Staff.mergeAll(track_staff_list);
+    merged_staff.setDescription(song_title);
+    merged_staff.resetPosition();
+    staff_list.add(merged_staff);
+    int track_num = 1;
+    String staff_name = "";
+
+    for (Staff s : track_staff_list) {
+      if (track_num == 1 && track_count == 2) {
+        staff_name = "Piano Right";
+      } else if (track_num == 2 && track_count == 2) {
+        staff_name = "Piano Left";
+      } else {
+        staff_name = "Staff "+track_num;
+      }
+
+      s.setDescription(staff_name);
+      staff_list.add(s);
+      track_num++;
+    }
+
+    Staff.shareTiming(staff_list);
+  }
+
+  public static Song read(File f) throws InvalidMidiDataException, IOException {
+    MidiFileReader reader = new MidiFileReader(f);
+    ArrayList<Staff> track_staff_list = reader.readStaves();
+    Song sg = new Song(track_staff_list, reader.getTrackCount(), f.getName());
+    sg.setResolution(reader.getResolution());
+    return sg;
+  }
+
+  public void setResolution(int ppq) {
+    for (Staff s : staff_list) {
+      s.setResolution(ppq);
+    }
+  }
+
+  public LinkedHashMap<String, String> getConfigOptions() {
+    LinkedHashMap<String, String> options = new LinkedHashMap<>();
+    String aggregated_numerator = "";
+    String aggregated_denominator = "";
+    String aggregated_ppq = "";
+    String aggregated_mpq = "";
+
+    for (int i = 0; i < staff_list.size(); i++) {
+      Staff s = staff_list.get(i);
+
+      if (i == 0) {
+        LinkedHashMap<String, String> init_options = s.getConfigOptions();
+        aggregated_numerator = init_options.get("Numerator");
+        aggregated_denominator = init_options.get("Denominator");
+        aggregated_ppq = init_options.get("Pulses/Ticks per Quarter Note (PPQ)");
+        aggregated_mpq = init_options.get("Microseconds per Quarter Note (MPQ)");
+        continue;
+      }
+
+      options = s.getConfigOptions();
+      String numerator = options.get("Numerator");
+
+      if (!numerator.equals(aggregated_numerator)) {
+        aggregated_numerator += "; "+numerator;
+      }
+
+      String denominator = options.get("Denominator");
+
+      if (!denominator.equals( aggregated_denominator)) {
+        aggregated_denominator += "; "+denominator;;
+      }
+
+      String ppq = options.get("Pulses/Ticks per Quarter Note (PPQ)");
+
+      if (!ppq.equals(aggregated_ppq)) {
+        aggregated_ppq += "; "+ppq;
+      }
+
+      String mpq = options.get("Microseconds per Quarter Note (MPQ)");
+
+      if (!mpq.equals(aggregated_mpq)) {
+        aggregated_mpq += "; "+mpq;
+      }
+    }
+
+    options.put("Numerator", aggregated_numerator);
+    options.put("Denominator", aggregated_denominator);
+    options.put("Pulses/Ticks per Quarter Note (PPQ)", aggregated_ppq);
+    options.put("Microseconds per Quarter Note (MPQ)", aggregated_mpq);
+    return options;
+  }
+
+  public void setConfigOptions(LinkedHashMap<String, String> options) {
+    LinkedHashMap<String, String> prev_options = this.getConfigOptions();
+
+    for (Staff s : staff_list) {
+      String numerator = options.get("Numerator");
+      String denominator = options.get("Denominator");
+      String ppq = options.get("Pulses/Ticks per Quarter Note (PPQ)");
+      String mpq = options.get("Microseconds per Quarter Note (MPQ)");
+
+      if (!prev_options.get("Numerator").equals(numerator)) {
+        s.setNumerator(Integer.parseInt(numerator));
+      }
+
+      if (!prev_options.get("Denominator").equals(denominator)) {
+        s.setDenominator(Integer.parseInt(denominator));
+      }
+
+      if (!prev_options.get("Pulses/Ticks per Quarter Note (PPQ)").equals(ppq)) {
+        s.setPPQ(Integer.parseInt(ppq));
+      }
+
+      if (!prev_options.get("Microseconds per Quarter Note (MPQ)").equals(mpq)) {
+        s.setMPQ(Float.parseFloat(mpq));
+      }
+    }
+  }
+
+  public void syncTickPosition(long tick) {
+    for (Staff s : staff_list) {
+      s.goToTick(tick);
+    }
+  }
+
+  public int getTrackCount() {
+    return track_count;
+  }
+
+  public ArrayList<Staff> getStaffList() {
+    return staff_list;
+  }
+
+  @Override
+  public String toString() {
+    return staff_list.get(0).toString();
+  }
+}
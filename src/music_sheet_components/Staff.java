@@ -14,11 +14,15 @@ import javax.sound.midi.Sequencer;
 import javax.sound.midi.Track;
 import javax.sound.midi.InvalidMidiDataException;
 
-import javax.swing.DefaultListModel;
+import javax.swing.AbstractListModel;
+import javax.swing.ListModel;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Properties;
 
 public class Staff {
@@ -31,10 +35,44 @@ public class Staff {
   public static int default_ppq; // pulses (ticks) per quarter note
   public static float default_mpq; // microseconds per quarter note
   public static int loop_count;
-
-  private DefaultListModel<Chord> staff_model = new DefaultListModel<>();
+  public static float tempo_factor; // practice speed relative to the written tempo
+
+  public static final float MIN_TEMPO_FACTOR = 0.5f;
+  public static final float MAX_TEMPO_FACTOR = 1.2f;
+  public static final float TEMPO_FACTOR_STEP = 0.1f;
+
+  public static final int INITIAL_CAPACITY = 16;
+  public static final int KEY_COUNT = 128;
+
+  // Chords and notes are stored column by column. Chord i holds the notes from
+  // chord_offsets[i] up to chord_offsets[i+1], highest key first.
+  private long[] chord_ticks = new long[INITIAL_CAPACITY];
+  private int[] chord_offsets = new int[INITIAL_CAPACITY+1];
+  private int chord_count;
+  private long[] note_lengths = new long[INITIAL_CAPACITY];
+  private byte[] note_keys = new byte[INITIAL_CAPACITY];
+  private byte[] note_velocities = new byte[INITIAL_CAPACITY];
+  private byte[] note_channels = new byte[INITIAL_CAPACITY];
+  private int note_count;
+
+  // Open notes per key, linked first to last through open_note_next while a track is parsed.
+  private int[] open_note_first;
+  private int[] open_note_last;
+  private int[] open_note_next;
+  private long[] open_note_ticks;
+
+  private ListModel<Chord> staff_model;
+  private String[] position_labels; // label of each chord, formatted when first shown
+
+  // Start tick, beat length and first chord at or after the start of each measure, following
+  // the time signature changes in meta_event_list. Built when first needed.
+  private long[] measure_ticks;
+  private int[] measure_beat_ticks;
+  private int[] measure_positions;
+  private int measure_count;
+  private int measure_chord_count;
   private ArrayList<MidiEvent> meta_event_list = new ArrayList<>();
-  private LinkedHashMap<Long, Long> playback_tick_map = new LinkedHashMap<>();
+  private long[] playback_ticks = new long[0]; // sequencer tick of each played chord
   private MetaMessage tempo_msg;
   private MetaMessage time_signature_msg;
   private int numerator;
@@ -43,6 +81,8 @@ public class Staff {
   private float mpq;
   private String description;
   private int pos;
+  private int play_start_pos;
+  private int play_stop_pos;
   private boolean is_playing;
 
   public static void loadConfig(Properties config) {
@@ -51,6 +91,8 @@ public class Staff {
     default_denominator = Integer.parseInt(config.getProperty("Staff.default_denominator", "4"));
     default_ppq = Integer.parseInt(config.getProperty("Staff.default_ppq", "480"));
     default_mpq = Float.parseFloat(config.getProperty("Staff.default_mpq", "2000000"));
+    tempo_factor = clampTempoFactor(Float.parseFloat(
+        config.getProperty("Staff.tempo_factor", "1.0")));
   }
 
   public static void saveConfig(Properties config) {
@@ -59,6 +101,27 @@ public class Staff {
     config.setProperty("Staff.default_denominator", Integer.toString(default_denominator));
     config.setProperty("Staff.default_ppq", Integer.toString(default_ppq));
     config.setProperty("Staff.default_mpq", Float.toString(default_mpq));
+    config.setProperty("Staff.tempo_factor", Float.toString(tempo_factor));
+  }
+
+  private static float clampTempoFactor(float factor) {
+    factor = Math.round(factor*100)/100f;
+    return Math.max(MIN_TEMPO_FACTOR, Math.min(MAX_TEMPO_FACTOR, factor));
+  }
+
+  // Changes the speed of the playing staff at once, keeping its position and events.
+  public static void setTempoFactor(Sequencer seqr, float factor) {
+    tempo_factor = clampTempoFactor(factor);
+
+    if (seqr != null) {
+      seqr.setTempoFactor(tempo_factor);
+    }
+
+    Player player = Player.get();
+
+    if (player != null) {
+      player.setTempoFactor(tempo_factor);
+    }
   }
 
   public Staff(String description) {
@@ -71,11 +134,15 @@ public class Staff {
     mpq = default_mpq;
   }
 
-  public Staff(Track tr) {
+  Staff() {
     description = "";
     is_playing = false;
     pos = 0;
     ppq = default_ppq;
+  }
+
+  public Staff(Track tr) {
+    this();
 
     for (int i = 0; i < tr.size(); i++) {
       MidiEvent e = tr.get(i);
@@ -83,28 +150,7 @@ public class Staff {
       long t = e.getTick();
 
       if (mm instanceof MetaMessage) {
-        MetaMessage meta = (MetaMessage) mm;
-
-        if (meta.getType() == MIDI_SET_TEMPO && tempo_msg == null) {
-          byte[] data = meta.getData();
-          mpq = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
-          tempo_msg = meta;
-        } else if (meta.getType() == MIDI_TIME_SIGNATURE && time_signature_msg == null) {
-          byte[] data = meta.getData();
-
-          if (data.length < 4) {
-            throw new IllegalArgumentException("Midi message is not a time signature event.");
-          }
-
-          if ((1 << data[1]) <= MAX_DENOMINATOR) {
-            numerator = data[0];
-            denominator = 1 << data[1];
-          }
-
-          time_signature_msg = meta;
-        } else {
-          meta_event_list.add(e);
-        }
+        insertMeta(e);
       } else if (mm instanceof ShortMessage) {
         ShortMessage sm = (ShortMessage) mm;
         int cmd = sm.getCommand();
@@ -115,11 +161,58 @@ public class Staff {
       }
     }
 
+    endTrack();
+  }
+
+  void insertMeta(MidiEvent e) {
+    MetaMessage meta = (MetaMessage) e.getMessage();
+
+    if (meta.getType() == MIDI_SET_TEMPO && tempo_msg == null) {
+      byte[] data = meta.getData();
+
+      if (data.length < 3) {
+        throw new IllegalArgumentException("Midi message is not a tempo event.");
+      }
+
+      mpq = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+      tempo_msg = meta;
+    } else if (meta.getType() == MIDI_TIME_SIGNATURE && time_signature_msg == null) {
+      byte[] data = meta.getData();
+
+      if (data.length < 4) {
+        throw new IllegalArgumentException("Midi message is not a time signature event.");
+      }
+
+      if ((1 << data[1]) <= MAX_DENOMINATOR) {
+        numerator = data[0];
+        denominator = 1 << data[1];
+      }
+
+      time_signature_msg = meta;
+    } else {
+      meta_event_list.add(e);
+    }
+
+    clearMeasureIndex();
+  }
+
+  void endTrack() {
+    // Notes were appended in the order they started; order each chord by key now that every note
+    // off has been matched. Notes still open at the end of the track are left unterminated.
+    for (int i = 0; i < chord_count; i++) {
+      sortChord(i);
+    }
+
+    open_note_first = null;
+    open_note_last = null;
+    open_note_next = null;
+    open_note_ticks = null;
+    trimToSize();
+
     try {
+      // A track without a tempo keeps no tempo event, so the song can share another's.
       if (mpq == 0) {
         mpq = default_mpq;
-        byte[] data = getTempoData(default_mpq);
-        tempo_msg = new MetaMessage(MIDI_SET_TEMPO, data, data.length);
       }
 
       if (numerator == 0 || denominator == 0) {
@@ -152,6 +245,7 @@ public class Staff {
     denominator = Integer.parseInt(options.get("Denominator"));
     ppq = Integer.parseInt(options.get("Pulses/Ticks per Quarter Note (PPQ)"));
     mpq = Float.parseFloat(options.get("Microseconds per Quarter Note (MPQ)"));
+    clearMeasureIndex();
 
     if (numerator <= 0 || denominator <= 0 || ppq <= 0 || mpq <= 0) {
       throw new NumberFormatException("Values less than or equal to 0 are not valid.");
@@ -164,6 +258,7 @@ public class Staff {
     }
 
     numerator = n;
+    clearMeasureIndex();
   }
 
   public void setDenominator(int d) throws NumberFormatException {
@@ -172,6 +267,7 @@ public class Staff {
     }
 
     denominator = d;
+    clearMeasureIndex();
   }
 
   public void setPPQ(int p) throws NumberFormatException {
@@ -180,6 +276,7 @@ public class Staff {
     }
 
     ppq = p;
+    clearMeasureIndex();
   }
 
   public void setMPQ(float m) throws NumberFormatException {
@@ -190,7 +287,131 @@ public class Staff {
     mpq = m;
   }
 
-  public DefaultListModel<Chord> getModel() {
+  public int getNumerator() {
+    return numerator;
+  }
+
+  public int getDenominator() {
+    return denominator;
+  }
+
+  public int getPPQ() {
+    return ppq;
+  }
+
+  public float getMPQ() {
+    return mpq;
+  }
+
+  public ArrayList<MidiEvent> getMetaEventList() {
+    return meta_event_list;
+  }
+
+  public void addMetaEvent(MidiEvent e) {
+    meta_event_list.add(e);
+    clearMeasureIndex();
+  }
+
+  // Sets the tempo as the staff's own, so it is not replaced by one shared from another staff.
+  public void setTempo(float m) throws InvalidMidiDataException {
+    setMPQ(m);
+    byte[] data = getTempoData(m);
+    tempo_msg = new MetaMessage(MIDI_SET_TEMPO, data, data.length);
+  }
+
+  public void setTimeSignature(int n, int d) throws InvalidMidiDataException {
+    setNumerator(n);
+    setDenominator(d);
+    byte[] data = getTimeSignatureData();
+    time_signature_msg = new MetaMessage(MIDI_TIME_SIGNATURE, data, data.length);
+  }
+
+  public boolean hasTempo() {
+    if (tempo_msg != null) {
+      return true;
+    }
+
+    for (MidiEvent e : meta_event_list) {
+      if (((MetaMessage) e.getMessage()).getType() == MIDI_SET_TEMPO) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public boolean hasTimeSignature() {
+    if (time_signature_msg != null) {
+      return true;
+    }
+
+    for (MidiEvent e : meta_event_list) {
+      if (((MetaMessage) e.getMessage()).getType() == MIDI_TIME_SIGNATURE) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // MIDI files usually keep the tempo and time signatures in one track; staves without any take
+  // those of the first staff that has them.
+  static void shareTiming(List<Staff> staff_list) {
+    Staff tempo_src = null;
+    Staff time_signature_src = null;
+
+    for (Staff s : staff_list) {
+      if (tempo_src == null && s.hasTempo()) {
+        tempo_src = s;
+      }
+
+      if (time_signature_src == null && s.hasTimeSignature()) {
+        time_signature_src = s;
+      }
+    }
+
+    for (Staff s : staff_list) {
+      if (tempo_src != null && !s.hasTempo()) {
+        s.mpq = tempo_src.mpq;
+        s.tempo_msg = tempo_src.tempo_msg;
+        s.copyMetaEvents(tempo_src, MIDI_SET_TEMPO);
+      }
+
+      if (time_signature_src != null && !s.hasTimeSignature()) {
+        s.numerator = time_signature_src.numerator;
+        s.denominator = time_signature_src.denominator;
+        s.time_signature_msg = time_signature_src.time_signature_msg;
+        s.copyMetaEvents(time_signature_src, MIDI_TIME_SIGNATURE);
+      }
+    }
+  }
+
+  private void copyMetaEvents(Staff src, int type) {
+    for (MidiEvent e : src.meta_event_list) {
+      if (((MetaMessage) e.getMessage()).getType() == type) {
+        meta_event_list.add(e);
+      }
+    }
+
+    clearMeasureIndex();
+  }
+
+  public ListModel<Chord> getModel() {
+    // Chord views are only created for the cells the list asks for.
+    if (staff_model == null) {
+      staff_model = new AbstractListModel<Chord>() {
+        @Override
+        public int getSize() {
+          return chord_count;
+        }
+
+        @Override
+        public Chord getElementAt(int i) {
+          return new Chord(Staff.this, i);
+        }
+      };
+    }
+
     return staff_model;
   }
 
@@ -218,8 +439,7 @@ public class Staff {
     // Base 2 log calculator for whole numbers.
     int i = 0;
 
-    while (denominator != 1) {
-      denominator /= 2;
+    for (int d = denominator; d > 1; d /= 2) {
       i++;
     }
     
@@ -234,77 +454,187 @@ public class Staff {
 
   public void setResolution(int ppq) {
     this.ppq = ppq;
+    clearMeasureIndex();
   }
 
-  public void setChordTimeSignature() {
-    Chord.setTimeSignature(numerator, denominator, ppq, mpq);
+  long ticksToMicroseconds(long t) {
+    return (long)(t*mpq/ppq);
   }
 
-  private void insertMsg(long t, ShortMessage sm) {
-    int cmd = sm.getCommand();
-    int vel = sm.getData2();
+  void insertMsg(long t, ShortMessage sm) {
+    insertMsg(t, sm.getCommand(), sm.getChannel(), sm.getData1(), sm.getData2());
+  }
+
+  void insertMsg(long t, int cmd, int channel, int key, int vel) {
+    if (open_note_first == null) {
+      open_note_first = new int[KEY_COUNT];
+      open_note_last = new int[KEY_COUNT];
+      open_note_next = new int[note_lengths.length];
+      open_note_ticks = new long[note_lengths.length];
+      Arrays.fill(open_note_first, -1);
+    }
 
     if (cmd == Note.NOTE_ON && vel != 0) {
-      Note n = new Note(t, sm);
+      appendNote(t, key, vel, channel, -1);
+
+      if (open_note_next.length < note_lengths.length) {
+        open_note_next = Arrays.copyOf(open_note_next, note_lengths.length);
+        open_note_ticks = Arrays.copyOf(open_note_ticks, note_lengths.length);
+      }
 
-      if (staff_model.size() == 0 || this.toEnd().getTick() != t) {
-        staff_model.addElement(new Chord(n));
+      // Queue the note so the matching note off terminates the earliest open note of its pitch.
+      int n = note_count-1;
+      open_note_next[n] = -1;
+      open_note_ticks[n] = t;
+
+      if (open_note_first[key] == -1) {
+        open_note_first[key] = n;
       } else {
-        this.toEnd().addNote(n);
+        open_note_next[open_note_last[key]] = n;
       }
 
-      return;
+      open_note_last[key] = n;
     } else if (cmd == Note.NOTE_OFF || vel == 0) {
-      for (Object o : staff_model.toArray()) {
-        Chord c = (Chord) o;
+      int n = open_note_first[key];
 
-        for (int j = 0; j < c.size(); j++) {
-          String name = Note.getMsgNoteName(sm);
-
-          if (!(c.getNote(j).isTerminated()) && c.getNote(j).getName().equals(name)) {
-            c.getNote(j).terminate(t, sm);
-            return;
-          }
-        }
+      if (n != -1) {
+        note_lengths[n] = t-open_note_ticks[n];
+        open_note_first[key] = open_note_next[n];
       }
     }
   }
 
-  public void setDescription(String desc) {
-    description = desc;
-  }
+  private void appendNote(long tick, int key, int vel, int channel, long length) {
+    if (chord_count == 0 || chord_ticks[chord_count-1] != tick) {
+      if (chord_count == chord_ticks.length) {
+        chord_ticks = Arrays.copyOf(chord_ticks, chord_count*2);
+        chord_offsets = Arrays.copyOf(chord_offsets, chord_count*2+1);
+      }
 
-  @Override
-  public String toString() {
-    return description;
+      chord_ticks[chord_count] = tick;
+      chord_offsets[chord_count] = note_count;
+      chord_count++;
+    }
+
+    if (note_count == note_lengths.length) {
+      note_lengths = Arrays.copyOf(note_lengths, note_count*2);
+      note_keys = Arrays.copyOf(note_keys, note_count*2);
+      note_velocities = Arrays.copyOf(note_velocities, note_count*2);
+      note_channels = Arrays.copyOf(note_channels, note_count*2);
+    }
+
+    note_lengths[note_count] = length;
+    note_keys[note_count] = (byte) key;
+    note_velocities[note_count] = (byte) vel;
+    note_channels[note_count] = (byte) channel;
+    note_count++;
+    chord_offsets[chord_count] = note_count;
   }
 
-  public int size() {
-    if (staff_model != null) {
-      return staff_model.size();
-    } else {
-      return 0;
+  public void addNote(long tick, int key, int vel, int channel, long length) {
+    if (chord_count > 0 && tick < chord_ticks[chord_count-1]) {
+      throw new IllegalArgumentException("Notes must be added in tick order.");
+    }
+
+    appendNote(tick, key, vel, channel, length);
+
+    // Keep the last chord ordered by key, placing the new note after notes of equal key.
+    int first = chord_offsets[chord_count-1];
+    int n = note_count-1;
+
+    while (n > first && (note_keys[n-1] & 0xff) < key) {
+      swapNotes(n-1, n);
+      n--;
     }
   }
 
-  public void addChord(Chord c) {
-    if (staff_model.size() == 0) {
-      pos = 0;
+  private void sortChord(int i) {
+    int first = chord_offsets[i];
+    int last = chord_offsets[i+1];
+
+    // Stable insertion sort, highest key first; chords rarely hold more than a handful of notes.
+    for (int n = first+1; n < last; n++) {
+      for (int m = n; m > first && (note_keys[m-1] & 0xff) < (note_keys[m] & 0xff); m--) {
+        swapNotes(m-1, m);
+      }
     }
+  }
 
-    staff_model.addElement(c);
+  private void swapNotes(int n, int m) {
+    long length = note_lengths[n];
+    note_lengths[n] = note_lengths[m];
+    note_lengths[m] = length;
+    byte b = note_keys[n];
+    note_keys[n] = note_keys[m];
+    note_keys[m] = b;
+    b = note_velocities[n];
+    note_velocities[n] = note_velocities[m];
+    note_velocities[m] = b;
+    b = note_channels[n];
+    note_channels[n] = note_channels[m];
+    note_channels[m] = b;
   }
 
-  public void addChord(int pos, Chord c) {
-    staff_model.add(pos, c);
+  public void trimToSize() {
+    chord_ticks = Arrays.copyOf(chord_ticks, chord_count);
+    chord_offsets = Arrays.copyOf(chord_offsets, chord_count+1);
+    note_lengths = Arrays.copyOf(note_lengths, note_count);
+    note_keys = Arrays.copyOf(note_keys, note_count);
+    note_velocities = Arrays.copyOf(note_velocities, note_count);
+    note_channels = Arrays.copyOf(note_channels, note_count);
   }
 
-  public void setChord(int pos, Chord c) {
-    staff_model.set(pos, c);
+  public long getChordTick(int pos) {
+    return chord_ticks[pos];
+  }
+
+  public int getChordSize(int pos) {
+    return chord_offsets[pos+1]-chord_offsets[pos];
+  }
+
+  public int getNoteIndex(int pos, int i) {
+    return chord_offsets[pos]+i;
+  }
+
+  public int getNoteCount() {
+    return note_count;
+  }
+
+  public int getNoteKey(int n) {
+    return note_keys[n] & 0xff;
+  }
+
+  public int getNoteVelocity(int n) {
+    return note_velocities[n] & 0xff;
+  }
+
+  public int getNoteChannel(int n) {
+    return note_channels[n];
+  }
+
+  public long getNoteLength(int n) {
+    return note_lengths[n];
+  }
+
+  public void setDescription(String desc) {
+    description = desc;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+  public int size() {
+    return chord_count;
   }
 
   public Chord getChord(int pos) {
-    return staff_model.get(pos);
+    if (pos < 0 || pos >= chord_count) {
+      throw new ArrayIndexOutOfBoundsException(pos);
+    }
+
+    return new Chord(this, pos);
   }
 
   public Chord moveForward() {
@@ -315,7 +645,7 @@ public class Staff {
       return null;
     }
 
-    return staff_model.get(pos);
+    return getChord(pos);
   }
 
   public Chord moveBack() {
@@ -326,24 +656,24 @@ public class Staff {
       return null;
     }
 
-    return staff_model.get(pos);
+    return getChord(pos);
   }
 
   public Chord toStart() {
     pos = 0;
 
     if (this.size() > 0) {
-      return staff_model.get(0);
+      return getChord(0);
     } else {
       return null;
     }
   }
 
   public Chord toEnd() {
-    pos = staff_model.size()-1;
+    pos = chord_count-1;
 
     if (this.size() > 0) {
-      return staff_model.get(pos);
+      return getChord(pos);
     } else {
       pos = 0;
       return null;
@@ -352,7 +682,19 @@ public class Staff {
 
   public Chord goTo(int i) {
     pos = i;
-    return staff_model.get(pos);
+    return getChord(pos);
+  }
+
+  public Chord goToTick(long tick) {
+    // Chord ticks are strictly increasing, so they double as the staff's sorted tick index.
+    int i = Arrays.binarySearch(chord_ticks, 0, chord_count, tick);
+
+    if (i < 0) {
+      i = -i-2;
+    }
+
+    pos = Math.max(i, 0);
+    return (chord_count > 0) ? getChord(pos) : null;
   }
 
   public int getPosition() {
@@ -363,67 +705,241 @@ public class Staff {
     pos = 0;
   }
 
-  public long[] getAllTicks() {
-    long[] tick_list = new long[this.size()];
+  private void clearMeasureIndex() {
+    measure_ticks = null;
+    position_labels = null;
+  }
+
+  private void indexMeasures() {
+    if (measure_ticks != null && measure_chord_count == chord_count) {
+      return;
+    }
+
+    // The staff's own time signature holds from the start; later ones begin a new measure.
+    ArrayList<MidiEvent> changes = new ArrayList<>();
 
-    for (int i = 0; i < this.size(); i++) {
-      tick_list[i] = staff_model.get(i).getTick();
+    for (MidiEvent e : meta_event_list) {
+      MetaMessage meta = (MetaMessage) e.getMessage();
+      byte[] data = meta.getData();
+
+      if (meta.getType() == MIDI_TIME_SIGNATURE && data.length >= 2 && data[0] > 0 &&
+          data[1] >= 0 && (1 << data[1]) <= MAX_DENOMINATOR) {
+        changes.add(e);
+      }
     }
 
-    return tick_list;
+    changes.sort(new Comparator<MidiEvent>() {
+      @Override
+      public int compare(MidiEvent e1, MidiEvent e2) {
+        return Long.compare(e1.getTick(), e2.getTick());
+      }
+    });
+
+    long end_tick = (chord_count > 0) ? chord_ticks[chord_count-1] : 0;
+    int num = numerator;
+    int den = denominator;
+    int c = 0;
+    int p = 0;
+    long t = 0;
+    measure_ticks = new long[INITIAL_CAPACITY];
+    measure_beat_ticks = new int[INITIAL_CAPACITY];
+    measure_positions = new int[INITIAL_CAPACITY];
+    measure_count = 0;
+
+    while (measure_count == 0 || t <= end_tick) {
+      for (; c < changes.size() && changes.get(c).getTick() <= t; c++) {
+        byte[] data = ((MetaMessage) changes.get(c).getMessage()).getData();
+        num = data[0];
+        den = 1 << data[1];
+      }
+
+      long beat_ticks = Math.max(1, 4L*ppq/den);
+      long next = t+Math.max(1, Math.max(1, num)*4L*ppq/den);
+
+      // A change in the middle of a measure cuts it short.
+      if (c < changes.size()) {
+        next = Math.min(next, changes.get(c).getTick());
+      }
+
+      if (measure_count == measure_ticks.length) {
+        measure_ticks = Arrays.copyOf(measure_ticks, measure_count*2);
+        measure_beat_ticks = Arrays.copyOf(measure_beat_ticks, measure_count*2);
+        measure_positions = Arrays.copyOf(measure_positions, measure_count*2);
+      }
+
+      while (p < chord_count && chord_ticks[p] < t) {
+        p++;
+      }
+
+      measure_ticks[measure_count] = t;
+      measure_beat_ticks[measure_count] = (int) beat_ticks;
+      measure_positions[measure_count] = p;
+      measure_count++;
+      t = next;
+    }
+
+    measure_chord_count = chord_count;
+    position_labels = null;
+  }
+
+  public int getMeasureCount() {
+    indexMeasures();
+    return measure_count;
+  }
+
+  // The first chord at or after the start of measure m, counted from 0.
+  public int getMeasurePosition(int m) {
+    indexMeasures();
+    return measure_positions[m];
+  }
+
+  // The measure holding chord pos.
+  public int getMeasure(int pos) {
+    indexMeasures();
+    int m = Arrays.binarySearch(measure_ticks, 0, measure_count, chord_ticks[pos]);
+    return (m < 0) ? -m-2 : m;
+  }
+
+  // Measure, beat and tick of a chord, e.g. "12M 3.240". Beats are counted in notes of the
+  // time signature's denominator.
+  public String getPositionLabel(int pos) {
+    indexMeasures();
+
+    if (position_labels == null || position_labels.length != chord_count) {
+      position_labels = new String[chord_count];
+    }
+
+    if (position_labels[pos] == null) {
+      int m = getMeasure(pos);
+      long offset = chord_ticks[pos]-measure_ticks[m];
+      int beat_ticks = measure_beat_ticks[m];
+      String tick = Long.toString(offset%beat_ticks);
+      StringBuilder sb = new StringBuilder();
+      sb.append(m).append("M ").append(offset/beat_ticks).append('.').append(tick);
+
+      // The tick is padded on the right to the width of the resolution, as it always was.
+      for (int i = tick.length(); i < Integer.toString(ppq).length(); i++) {
+        sb.append('0');
+      }
+
+      position_labels[pos] = sb.toString();
+    }
+
+    return position_labels[pos];
+  }
+
+  // The tick at which the last note is released.
+  public long getEndTick() {
+    long end_tick = 0;
+
+    for (int i = 0; i < chord_count; i++) {
+      for (int n = chord_offsets[i]; n < chord_offsets[i+1]; n++) {
+        end_tick = Math.max(end_tick, chord_ticks[i]+Math.max(note_lengths[n], 0));
+      }
+    }
+
+    return end_tick;
+  }
+
+  public long[] getAllTicks() {
+    return Arrays.copyOf(chord_ticks, chord_count);
   }
 
   public void print() {
     System.out.println("Staff description: "+description+"\n");
 
-    for (int i = 0; i<staff_model.size(); i++) {
+    for (int i = 0; i < chord_count; i++) {
       System.out.print("pos "+i+" ");
-      staff_model.get(i).print();
+      getChord(i).print();
     }
   }
 
-  public static Staff merge(Staff s1, Staff s2) {
-    if (s1 == null && s2 != null) {
-      return s2;
-    } else if (s1 != null && s2 == null) {
-      return s1;
-    } else if (s1 == null && s2 == null) {
-      return null;
-    }
+  public static Staff mergeAll(List<Staff> staff_list) {
+    Staff s = new Staff("");
+    int[] pos_list = new int[staff_list.size()];
 
-    Staff s = new Staff(s1.toString()+" + "+s2.toString());
-    Chord c1 = s1.toStart();
-    Chord c2 = s2.toStart();
+    // Order staves by the tick of their next chord, then by their place in the list, so chords
+    // sharing a tick are joined in staff order.
+    PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, staff_list.size()),
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer i1, Integer i2) {
+            long t1 = staff_list.get(i1).getChordTick(pos_list[i1]);
+            long t2 = staff_list.get(i2).getChordTick(pos_list[i2]);
 
-    while (c1 != null && c2 != null) {
-      if (c1.getTick() < c2.getTick()) {
-        s.addChord(c1);
-        c1 = s1.moveForward();
-      } else if (c1.getTick() == c2.getTick()) {
-        s.addChord(Chord.join(c1, c2));
-        c1 = s1.moveForward();
-        c2 = s2.moveForward();
-      } else {
-        s.addChord(c2);
-        c2 = s2.moveForward();
+            if (t1 != t2) {
+              return (t1 < t2) ? -1 : 1;
+            }
+
+            return Integer.compare(i1, i2);
+          }
+        });
+
+    for (int i = 0; i < staff_list.size(); i++) {
+      if (staff_list.get(i).size() > 0) {
+        heap.add(i);
       }
     }
 
-    while(c1 != null) {
-      s.addChord(c1);
-      c1 = s1.moveForward();
+    while (!heap.isEmpty()) {
+      int i = heap.poll();
+      Staff si = staff_list.get(i);
+      long tick = si.getChordTick(pos_list[i]);
+      s.copyChord(si, pos_list[i]);
+      advance(heap, si, pos_list, i);
+
+      while (!heap.isEmpty()) {
+        int j = heap.peek();
+        Staff sj = staff_list.get(j);
+
+        if (sj.getChordTick(pos_list[j]) != tick) {
+          break;
+        }
+
+        heap.poll();
+        s.copyChord(sj, pos_list[j]);
+        advance(heap, sj, pos_list, j);
+      }
     }
 
-    while (c2 != null) {
-      s.addChord(c2);
-      c2 = s2.moveForward();
+    s.trimToSize();
+
+    if (staff_list.size() > 0) {
+      s.setConfigOptions(staff_list.get(0).getConfigOptions());
     }
 
-    s.setConfigOptions(s1.getConfigOptions());
     return s;
   }
 
+  private void copyChord(Staff src, int src_pos) {
+    for (int n = src.chord_offsets[src_pos]; n < src.chord_offsets[src_pos+1]; n++) {
+      addNote(src.chord_ticks[src_pos], src.note_keys[n] & 0xff, src.note_velocities[n] & 0xff,
+          src.note_channels[n], src.note_lengths[n]);
+    }
+  }
+
+  private static void advance(PriorityQueue<Integer> heap, Staff s, int[] pos_list, int i) {
+    pos_list[i]++;
+
+    if (pos_list[i] < s.size()) {
+      heap.add(i);
+    }
+  }
+
   public void play(Sequencer seqr, int start_pos, int stop_pos, int mode) {
+    Player player = Player.get();
+
+    // Stream from the output device's player when one is open, so playback starts at once.
+    if (player != null) {
+      if (seqr != null && seqr.isRunning()) {
+        seqr.stop();
+      }
+
+      player.play(this, start_pos, stop_pos, mode, start_pos != stop_pos ? loop_count : 1);
+      is_playing = true;
+      return;
+    }
+
     if (seqr == null) {
       return;
     }
@@ -431,8 +947,6 @@ public class Staff {
     try {
       Sequence seq = new Sequence(Sequence.PPQ, ppq);
       Track tr = seq.createTrack();
-      Note n;
-      Chord c;
       long start = 0;
       long stop = 0;
       long offset_in_ticks = 0;
@@ -444,38 +958,45 @@ public class Staff {
         offset_in_ticks = (long)(ppq*Chord.chord_offset*1000/mpq);
       }
 
+      play_start_pos = start_pos;
+      play_stop_pos = stop_pos;
+
+      if (playback_ticks.length < stop_pos-start_pos+1) {
+        playback_ticks = new long[stop_pos-start_pos+1];
+      }
+
       for (int i = start_pos; i <= stop_pos; i++) {
-        c = staff_model.get(i);
-        playback_tick_map.put(c.getTick(), start+offset_in_ticks);
+        playback_ticks[i-start_pos] = start+offset_in_ticks;
 
-        for (int j = c.size()-1; j >= 0; j--) {
-          n = c.getNote(j);
+        for (int j = getChordSize(i)-1; j >= 0; j--) {
+          int n = chord_offsets[i]+j;
           start += offset_in_ticks;
 
           if (mode == Chord.SYNCHRONIZED) {
-            stop = start+n.length();
+            stop = start+Math.max(note_lengths[n], 0);
           } else if (mode == Chord.OFFSET) {
             stop = start+(j+1)*offset_in_ticks;
           }
 
-          ShortMessage start_msg = new ShortMessage();
+          int vel = note_velocities[n];
 
-          if (mode == Chord.SYNCHRONIZED) {
-            start_msg = n.start();
-          } else if (mode == Chord.OFFSET) {
-            start_msg = new ShortMessage(n.start().getStatus(),
-                n.getIndex(), Note.review_velocity);
+          if (mode == Chord.OFFSET) {
+            vel = Note.review_velocity;
           }
 
+          ShortMessage start_msg = new ShortMessage(Note.NOTE_ON, note_channels[n], note_keys[n],
+              vel);
+          ShortMessage stop_msg = new ShortMessage(Note.NOTE_OFF, note_channels[n], note_keys[n],
+              0);
           start_e = new MidiEvent(start_msg, start);
-          stop_e = new MidiEvent(n.stop(), stop);
+          stop_e = new MidiEvent(stop_msg, stop);
           tr.add(start_e);
           tr.add(stop_e);
         }
 
         if (i < stop_pos) {
           if (mode == Chord.SYNCHRONIZED) {
-            start += staff_model.get(i+1).getTick()-c.getTick();
+            start += chord_ticks[i+1]-chord_ticks[i];
           } else if (mode == Chord.OFFSET) {
             start += buffer_in_ticks;
           }
@@ -503,6 +1024,8 @@ public class Staff {
         seqr.setTempoInMPQ(mpq);
       }
 
+      seqr.setTempoFactor(tempo_factor);
+
       if (start_pos != stop_pos) {
         seqr.setLoopCount(loop_count-1);
       } else {
@@ -522,6 +1045,17 @@ public class Staff {
   }
 
   public void stop(Sequencer seqr) {
+    Player player = Player.get();
+
+    if (player != null) {
+      if (player.getStaff() == this) {
+        pos = player.stop();
+      }
+
+      is_playing = false;
+      return;
+    }
+
     if (seqr == null) {
       return;
     }
@@ -529,22 +1063,19 @@ public class Staff {
     seqr.stop();
     is_playing = false;
 
-    while (playback_tick_map.get(staff_model.get(pos).getTick()) < seqr.getTickPosition()) {
-      if (pos == this.size()-1) {
-        break;
-      } else {
-        pos++;
-      }
+    // Find the last chord of the played range that started at or before the sequencer position.
+    int played_count = play_stop_pos-play_start_pos+1;
+
+    if (played_count > playback_ticks.length) {
+      return;
     }
 
-    while (playback_tick_map.get(staff_model.get(pos).getTick()) > seqr.getTickPosition()) {
-      if (pos == 0) {
-        break;
-      } else {
-        pos--;
-      }
+    int i = Arrays.binarySearch(playback_ticks, 0, played_count, seqr.getTickPosition());
+
+    if (i < 0) {
+      i = -i-2;
     }
 
-    playback_tick_map.clear();
+    pos = play_start_pos+Math.max(i, 0);
   }
 }